@@ -0,0 +1,35 @@
+package com.tony.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Access to the checked-in benchmark programs under resources/corpus.
+ */
+public final class Corpus {
+	private Corpus() {
+	}
+
+	public static String read(String name) {
+		try (InputStream in = Corpus.class.getResourceAsStream("/corpus/"
+				+ name)) {
+			if (in == null)
+				throw new IllegalArgumentException("No corpus file " + name);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			in.transferTo(bytes);
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Stream swallowing script output.
+	public static PrintStream nullStream() {
+		return new PrintStream(OutputStream.nullOutputStream());
+	}
+}
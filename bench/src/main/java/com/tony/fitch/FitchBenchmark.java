@@ -0,0 +1,48 @@
+package com.tony.fitch;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tony.bench.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FitchBenchmark {
+	@Param({"formulas.fitch"})
+	public String file;
+
+	private String source;
+	private List<Token> tokens;
+
+	@Setup
+	public void load() {
+		source = Corpus.read(file);
+		tokens = new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public Object scanTokens() {
+		return new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public Object parse() {
+		return new Parser(tokens).parse();
+	}
+}
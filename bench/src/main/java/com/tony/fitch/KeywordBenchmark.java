@@ -0,0 +1,97 @@
+package com.tony.fitch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Keyword recognition in the Fitch Scanner: the old lookup (substring +
+ * HashMap probe) against Scanner.keyword() on the identifiers of a
+ * generated, identifier-heavy corpus. Scores are per identifier; run with
+ * the gc profiler (the default for the jmh task) to see bytes allocated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordBenchmark {
+	private static final int IDENTIFIERS = 100000;
+
+	private static final String[] WORDS = {"and", "or", "not", "FA", "EX",
+			"bottom", "false", "true", "iff", "P", "Q", "f", "g", "x", "y",
+			"Likes", "Cube", "Tet", "between", "ab", "nothing", "iffy"};
+
+	private static final Map<String, TokenType> keywords = new HashMap<>();
+
+	static {
+		keywords.put("and", TokenType.AND);
+		keywords.put("or", TokenType.OR);
+		keywords.put("not", TokenType.NOT);
+		keywords.put("FA", TokenType.FOR_ALL);
+		keywords.put("EX", TokenType.EXISTS);
+		keywords.put("bottom", TokenType.FALSE);
+		keywords.put("false", TokenType.FALSE);
+		keywords.put("true", TokenType.TRUE);
+		keywords.put("iff", TokenType.BI_IMPL);
+	}
+
+	private String source;
+	private int[] starts;
+	private int[] ends;
+
+	@Setup
+	public void generate() {
+		// One identifier per entry, separated by spaces.
+		StringBuilder corpus = new StringBuilder();
+		starts = new int[IDENTIFIERS];
+		ends = new int[IDENTIFIERS];
+		Random random = new Random(42);
+		for (int i = 0; i < IDENTIFIERS; i++) {
+			starts[i] = corpus.length();
+			corpus.append(WORDS[random.nextInt(WORDS.length)]);
+			if (random.nextBoolean())
+				corpus.append(random.nextInt(100));
+			ends[i] = corpus.length();
+			corpus.append(' ');
+		}
+		source = corpus.toString();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IDENTIFIERS)
+	public int substringAndHashMap() {
+		int hits = 0;
+		for (int i = 0; i < starts.length; i++) {
+			if (keywords.get(source.substring(starts[i], ends[i])) != null)
+				hits++;
+		}
+		return hits;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IDENTIFIERS)
+	public int scannerKeyword() {
+		int hits = 0;
+		for (int i = 0; i < starts.length; i++) {
+			TokenType type = Scanner.keyword(source, starts[i], ends[i]);
+			if (type != TokenType.IDENTIFIER)
+				hits++;
+		}
+		return hits;
+	}
+}
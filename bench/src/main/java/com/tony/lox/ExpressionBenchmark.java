@@ -0,0 +1,118 @@
+package com.tony.lox;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Front end throughput on a large generated file of expression statements
+ * using every operator, nested groupings and assignments. The program is
+ * only parsed, never run. Generation is seeded, so every run parses the
+ * same source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+	private static final int VARIABLES = 16;
+	private static final String[] BINARY = {"+", "-", "*", "/", "==", "!=",
+			"<", "<=", ">", ">=", "and", "or"};
+
+	@Param({"20000"})
+	public int statements;
+
+	@Param({"6"})
+	public int depth;
+
+	private String source;
+	private List<Token> tokens;
+
+	@Setup
+	public void load() {
+		source = generate(statements, depth, new Random(42));
+		tokens = new Scanner(source).scanTokens();
+	}
+
+	// Parsing alone, from an already scanned token list.
+	@Benchmark
+	public Object parse() {
+		return new Parser(tokens).parse();
+	}
+
+	// Scanning and parsing with tokens streamed from the scanner.
+	@Benchmark
+	public Object scanAndParse() {
+		return new Parser(new Scanner(source)).parse();
+	}
+
+	private static String generate(int statements, int depth, Random random) {
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < VARIABLES; i++) {
+			source.append("var v").append(i).append(" = ").append(i).append(
+					";\n");
+		}
+		for (int i = 0; i < statements; i++) {
+			if (random.nextInt(4) == 0) {
+				source.append("print ");
+			} else {
+				source.append('v').append(random.nextInt(VARIABLES)).append(
+						" = ");
+			}
+			expression(source, depth, random);
+			source.append(";\n");
+		}
+		return source.toString();
+	}
+
+	private static void expression(StringBuilder source, int depth,
+			Random random) {
+		int choice = depth == 0 ? random.nextInt(3) : random.nextInt(10);
+		switch (choice) {
+			case 0 :
+				source.append('v').append(random.nextInt(VARIABLES));
+				break;
+			case 1 :
+				source.append(random.nextInt(1000));
+				break;
+			case 2 :
+				source.append(random.nextBoolean() ? "\"text\"" : "nil");
+				break;
+			case 3 :
+				source.append(random.nextBoolean() ? '-' : '!');
+				expression(source, depth - 1, random);
+				break;
+			case 4 :
+				source.append('(');
+				expression(source, depth - 1, random);
+				source.append(')');
+				break;
+			case 5 :
+				source.append("(v").append(random.nextInt(VARIABLES)).append(
+						" = ");
+				expression(source, depth - 1, random);
+				source.append(')');
+				break;
+			default :
+				expression(source, depth - 1, random);
+				source.append(' ').append(BINARY[random.nextInt(
+						BINARY.length)]).append(' ');
+				expression(source, depth - 1, random);
+				break;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.tony.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tony.bench.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+	@Param({"loops.lox", "strings.lox", "nesting.lox"})
+	public String file;
+
+	private List<Stmt> statements;
+	private List<Stmt> fused;
+	// Script output is discarded, so that it does not measure the console.
+	private final Output out = new Output(Corpus.nullStream());
+	private final ErrorReporter errors = new ErrorReporter(System.err);
+
+	@Setup
+	public void load() {
+		statements = new Parser(new Scanner(Corpus.read(file))).parse();
+		new Resolver().resolve(statements);
+		fused = new Fuser().fuse(statements);
+	}
+
+	// Each run starts with fresh globals.
+	@Benchmark
+	public Object interpret() {
+		Interpreter interpreter = new Interpreter(out, errors);
+		interpreter.interpret(statements);
+		return interpreter;
+	}
+
+	// The same with superinstructions.
+	@Benchmark
+	public Object fused() {
+		Interpreter interpreter = new Interpreter(out, errors);
+		interpreter.interpret(fused);
+		return interpreter;
+	}
+
+	// Closure compilation included.
+	@Benchmark
+	public Object closures() {
+		ClosureCompiler closures = new ClosureCompiler(out, errors);
+		closures.interpret(statements);
+		return closures;
+	}
+}
@@ -0,0 +1,56 @@
+package com.tony.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Printing the values of a loop counter: the old println(stringify(value))
+ * on an autoflushing PrintStream against Output. Both write into a reused
+ * in-memory stream, so the scores are per line and exclude the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+	private static final int LINES = 100000;
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final PrintStream stream = new PrintStream(bytes, true);
+	private final Output output = new Output(bytes);
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public int printStream() {
+		bytes.reset();
+		for (int i = 0; i < LINES; i++) {
+			stream.println(Interpreter.stringify((double) i));
+		}
+		return bytes.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public int output() {
+		bytes.reset();
+		for (int i = 0; i < LINES; i++) {
+			output.print((double) i);
+		}
+		output.flush();
+		return bytes.size();
+	}
+}
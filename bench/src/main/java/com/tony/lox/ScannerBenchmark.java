@@ -0,0 +1,45 @@
+package com.tony.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tony.bench.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+	@Param({"loops.lox", "strings.lox", "nesting.lox"})
+	public String file;
+
+	private String source;
+
+	@Setup
+	public void load() {
+		source = Corpus.read(file);
+	}
+
+	@Benchmark
+	public Object scanTokens() {
+		return new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public Object scanCompact() {
+		return new Scanner(source).scanCompact();
+	}
+}
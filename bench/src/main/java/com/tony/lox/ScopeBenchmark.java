@@ -0,0 +1,61 @@
+package com.tony.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tony.bench.Corpus;
+
+/*
+ * A loop whose body is a block with locals, so every iteration enters a
+ * scope. Run with the gc profiler (the default for the jmh task) and
+ * compare gc.alloc.rate.norm, the bytes allocated per run of the loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ScopeBenchmark {
+	@Param({"10000000"})
+	public int iterations;
+
+	private List<Stmt> statements;
+	private final Output out = new Output(Corpus.nullStream());
+	private final ErrorReporter errors = new ErrorReporter(System.err);
+
+	@Setup
+	public void load() {
+		String source = "var i = 0;\n" + "while (i < " + iterations + ") {\n"
+				+ "  var next = i + 1;\n" + "  { var inner = next; i = inner; }\n"
+				+ "}\n";
+		statements = new Parser(new Scanner(source)).parse();
+		new Resolver().resolve(statements);
+	}
+
+	@Benchmark
+	public Object interpret() {
+		Interpreter interpreter = new Interpreter(out, errors);
+		interpreter.interpret(statements);
+		return interpreter;
+	}
+
+	@Benchmark
+	public Object closures() {
+		ClosureCompiler closures = new ClosureCompiler(out, errors);
+		closures.interpret(statements);
+		return closures;
+	}
+}
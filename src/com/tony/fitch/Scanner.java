@@ -2,9 +2,7 @@ package com.tony.fitch;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.tony.fitch.TokenType.*;
 
@@ -15,21 +13,6 @@ public class Scanner {
 	private int current = 0;
 	private int line = 1;
 
-	private static final Map<String, TokenType> keywords;
-
-	static {
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("or", OR);
-		keywords.put("not", NOT);
-		keywords.put("FA", FOR_ALL);
-		keywords.put("EX", EXISTS);
-		keywords.put("bottom", FALSE);
-		keywords.put("false", FALSE);
-		keywords.put("true", TRUE);
-		keywords.put("iff", BI_IMPL);
-	}
-
 	Scanner(String source) {
 		this.source = source;
 	}
@@ -164,12 +147,42 @@ public class Scanner {
 			advance();
 
 		// See if the identifier is a reserved word.
-		String text = source.substring(start, current);
+		addToken(keyword(source, start, current));
+	}
+
+	// Matches source[start, end) against the reserved words by switching on
+	// its first character, so no String is created just for the lookup.
+	// Returns IDENTIFIER if it is not a keyword.
+	static TokenType keyword(String source, int start, int end) {
+		switch (source.charAt(start)) {
+			case 'a' :
+				return rest(source, start, end, "nd", AND);
+			case 'o' :
+				return rest(source, start, end, "r", OR);
+			case 'n' :
+				return rest(source, start, end, "ot", NOT);
+			case 'F' :
+				return rest(source, start, end, "A", FOR_ALL);
+			case 'E' :
+				return rest(source, start, end, "X", EXISTS);
+			case 'b' :
+				return rest(source, start, end, "ottom", FALSE);
+			case 'f' :
+				return rest(source, start, end, "alse", FALSE);
+			case 't' :
+				return rest(source, start, end, "rue", TRUE);
+			case 'i' :
+				return rest(source, start, end, "ff", BI_IMPL);
+		}
+		return IDENTIFIER;
+	}
 
-		TokenType type = keywords.get(text);
-		if (type == null)
-			type = IDENTIFIER;
-		addToken(type);
+	private static TokenType rest(String source, int start, int end,
+			String rest, TokenType type) {
+		if (end - start == 1 + rest.length()
+				&& source.regionMatches(start + 1, rest, 0, rest.length()))
+			return type;
+		return IDENTIFIER;
 	}
 
 	private boolean isAlpha(char c) {
@@ -0,0 +1,565 @@
+package com.tony.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tony.lox.Expr.Assign;
+import com.tony.lox.Expr.Binary;
+import com.tony.lox.Expr.Grouping;
+import com.tony.lox.Expr.Literal;
+import com.tony.lox.Expr.Logical;
+import com.tony.lox.Expr.Unary;
+import com.tony.lox.Expr.Variable;
+import com.tony.lox.Stmt.Block;
+import com.tony.lox.Stmt.Expression;
+import com.tony.lox.Stmt.For;
+import com.tony.lox.Stmt.If;
+import com.tony.lox.Stmt.Print;
+import com.tony.lox.Stmt.Var;
+import com.tony.lox.Stmt.While;
+
+/*
+ * Directory of resolved syntax trees in a compact binary form, keyed by a
+ * SHA-256 hash of the source, so that running an unchanged script skips
+ * scanning, parsing, optimizing and resolving. A file holds:
+ *
+ *   header   magic, format version, source hash
+ *   strings  lexemes and string constants, each stored once
+ *   numbers  number constants, each stored once
+ *   lines    the line of every token, as varint deltas
+ *   nodes    the tree in prefix order: a tag byte per node, then varint
+ *            operands (pool indexes, resolved depths and slots)
+ *
+ * Files are read through a memory mapping. One that does not decode or was
+ * written for other source is a miss, and gets rewritten.
+ */
+class AstCache {
+	private static final int MAGIC = 0x4C4F5841; // "LOXA"
+	// Bump when the tree, TokenType or the format changes.
+	private static final int VERSION = 2;
+
+	// Node tags
+	private static final byte NULL = 0;
+	private static final byte ASSIGN = 1;
+	private static final byte BINARY = 2;
+	private static final byte GROUPING = 3;
+	private static final byte LITERAL = 4;
+	private static final byte LOGICAL = 5;
+	private static final byte UNARY = 6;
+	private static final byte VARIABLE = 7;
+	private static final byte BLOCK = 8;
+	private static final byte EXPRESSION = 9;
+	private static final byte PRINT = 10;
+	private static final byte IF = 11;
+	private static final byte VAR = 12;
+	private static final byte WHILE = 13;
+	private static final byte FOR = 14;
+
+	// Literal tags
+	private static final byte NIL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte NUMBER = 3;
+	private static final byte STRING = 4;
+
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+	private final Path directory;
+
+	AstCache(Path directory) {
+		this.directory = directory;
+	}
+
+	// The tree stored for the source, or null on a miss. Identifiers are
+	// interned into the given table.
+	List<Stmt> load(String source, boolean optimized, SymbolTable symbols) {
+		byte[] hash = hash(source, optimized);
+		Path file = file(hash);
+		if (!Files.isRegularFile(file))
+			return null;
+
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel
+					.size());
+			return new Reader(buffer, symbols).read(hash);
+		} catch (IOException | RuntimeException e) {
+			// Truncated, corrupt or from another version.
+			return null;
+		}
+	}
+
+	void store(String source, boolean optimized, List<Stmt> statements) {
+		byte[] hash = hash(source, optimized);
+		Path temp = null;
+		try {
+			Files.createDirectories(directory);
+			// Written aside and moved into place, so that concurrent runs
+			// never map a half-written file.
+			temp = Files.createTempFile(directory, null, ".tmp");
+			Files.write(temp, new Writer().write(hash, statements));
+			Files.move(temp, file(hash), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// Not being able to cache only costs the next run a parse.
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private Path file(byte[] hash) {
+		StringBuilder name = new StringBuilder();
+		for (byte b : hash) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16));
+			name.append(Character.forDigit(b & 0xF, 16));
+		}
+		return directory.resolve(name.append(".ast").toString());
+	}
+
+	// Optimized and unoptimized trees of the same source differ.
+	private static byte[] hash(String source, boolean optimized) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((byte) (optimized ? 1 : 0));
+			return digest.digest(source.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Writing:
+	// ////////////////////////////////////////////
+
+	private static final class Writer
+			implements
+				Expr.Visitor<Void>,
+				Stmt.Visitor<Void> {
+		private final Map<String, Integer> strings = new HashMap<>();
+		private final Map<Double, Integer> numbers = new HashMap<>();
+		private final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+		private int line = 0;
+
+		byte[] write(byte[] hash, List<Stmt> statements) throws IOException {
+			for (Stmt statement : statements) {
+				statement.accept(this);
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(hash);
+
+			String[] stringPool = new String[strings.size()];
+			strings.forEach((string, index) -> stringPool[index] = string);
+			out.writeInt(stringPool.length);
+			for (String string : stringPool) {
+				byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(utf8.length);
+				out.write(utf8);
+			}
+
+			double[] numberPool = new double[numbers.size()];
+			numbers.forEach((number, index) -> numberPool[index] = number);
+			out.writeInt(numberPool.length);
+			for (double number : numberPool) {
+				out.writeDouble(number);
+			}
+
+			out.writeInt(lines.size());
+			lines.writeTo(out);
+			out.writeInt(statements.size());
+			out.writeInt(nodes.size());
+			nodes.writeTo(out);
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		private void tag(byte tag) {
+			nodes.write(tag);
+		}
+
+		private void operand(int value) {
+			writeVarint(nodes, value);
+		}
+
+		private void token(Token token) {
+			operand(token.type.ordinal());
+			operand(string(token.lexeme));
+			writeVarint(lines, zigzag(token.line - line));
+			line = token.line;
+		}
+
+		private int string(String string) {
+			return strings.computeIfAbsent(string, key -> strings.size());
+		}
+
+		private void expression(Expr expr) {
+			if (expr == null) {
+				tag(NULL);
+			} else {
+				expr.accept(this);
+			}
+		}
+
+		private void statement(Stmt stmt) {
+			if (stmt == null) {
+				tag(NULL);
+			} else {
+				stmt.accept(this);
+			}
+		}
+
+		@Override
+		public Void visitAssignExpr(Assign expr) {
+			tag(ASSIGN);
+			token(expr.name);
+			expression(expr.value);
+			operand(expr.depth + 1);
+			operand(expr.slot + 1);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Binary expr) {
+			tag(BINARY);
+			expression(expr.left);
+			token(expr.operator);
+			expression(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Grouping expr) {
+			tag(GROUPING);
+			expression(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Literal expr) {
+			tag(LITERAL);
+			Object value = expr.value;
+			if (value == null) {
+				tag(NIL);
+			} else if (value instanceof Boolean) {
+				tag((Boolean) value ? TRUE : FALSE);
+			} else if (value instanceof Double) {
+				tag(NUMBER);
+				operand(numbers.computeIfAbsent((Double) value, key -> numbers
+						.size()));
+			} else if (value instanceof String) {
+				tag(STRING);
+				operand(string((String) value));
+			} else {
+				throw new IllegalArgumentException("Cannot cache literal "
+						+ value);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Logical expr) {
+			tag(LOGICAL);
+			expression(expr.left);
+			token(expr.operator);
+			expression(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Unary expr) {
+			tag(UNARY);
+			token(expr.operator);
+			expression(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Variable expr) {
+			tag(VARIABLE);
+			token(expr.name);
+			operand(expr.depth + 1);
+			operand(expr.slot + 1);
+			return null;
+		}
+
+		@Override
+		public Void visitBlockStmt(Block stmt) {
+			tag(BLOCK);
+			operand(stmt.slots);
+			operand(stmt.statements.size());
+			for (Stmt statement : stmt.statements) {
+				statement(statement);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Expression stmt) {
+			tag(EXPRESSION);
+			expression(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Print stmt) {
+			tag(PRINT);
+			expression(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(If stmt) {
+			tag(IF);
+			expression(stmt.condition);
+			statement(stmt.thenBranch);
+			statement(stmt.elseBranch);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Var stmt) {
+			tag(VAR);
+			token(stmt.name);
+			expression(stmt.initializer);
+			operand(stmt.slot + 1);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(While stmt) {
+			tag(WHILE);
+			expression(stmt.condition);
+			statement(stmt.body);
+			return null;
+		}
+
+		@Override
+		public Void visitForStmt(For stmt) {
+			tag(FOR);
+			statement(stmt.initializer);
+			expression(stmt.condition);
+			expression(stmt.increment);
+			statement(stmt.body);
+			operand(stmt.slots);
+			operand(stmt.counted ? 1 : 0);
+			return null;
+		}
+	}
+
+	// Reading:
+	// ////////////////////////////////////////////
+
+	// Reads nodes in the order Writer wrote them; constructor arguments are
+	// evaluated left to right, which keeps tokens in line table order.
+	private static final class Reader {
+		private final ByteBuffer buffer;
+		private final SymbolTable symbols;
+		private String[] strings;
+		private double[] numbers;
+		private ByteBuffer lines;
+		private ByteBuffer nodes;
+		private int line = 0;
+
+		Reader(ByteBuffer buffer, SymbolTable symbols) {
+			this.buffer = buffer;
+			this.symbols = symbols;
+		}
+
+		List<Stmt> read(byte[] hash) {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+			byte[] stored = new byte[hash.length];
+			buffer.get(stored);
+			if (!Arrays.equals(stored, hash))
+				return null;
+
+			strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] utf8 = new byte[buffer.getInt()];
+				buffer.get(utf8);
+				strings[i] = new String(utf8, StandardCharsets.UTF_8);
+			}
+			numbers = new double[buffer.getInt()];
+			for (int i = 0; i < numbers.length; i++) {
+				numbers[i] = buffer.getDouble();
+			}
+			lines = section();
+			int count = buffer.getInt();
+			nodes = section();
+
+			List<Stmt> statements = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				statements.add(statement());
+			}
+			if (nodes.hasRemaining() || lines.hasRemaining())
+				return null;
+			return statements;
+		}
+
+		private ByteBuffer section() {
+			int size = buffer.getInt();
+			ByteBuffer section = buffer.slice(buffer.position(), size);
+			buffer.position(buffer.position() + size);
+			return section;
+		}
+
+		private int operand() {
+			return readVarint(nodes);
+		}
+
+		private Token token() {
+			TokenType type = TOKEN_TYPES[operand()];
+			String lexeme = strings[operand()];
+			line += unzigzag(readVarint(lines));
+			int symbol = type == TokenType.IDENTIFIER
+					? symbols.intern(lexeme)
+					: -1;
+			return new Token(type, lexeme, null, line, symbol);
+		}
+
+		private Stmt statement() {
+			byte tag = nodes.get();
+			switch (tag) {
+				case NULL :
+					return null;
+				case BLOCK : {
+					int slots = operand();
+					int count = operand();
+					List<Stmt> statements = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						statements.add(statement());
+					}
+					Block block = new Block(statements);
+					block.slots = slots;
+					return block;
+				}
+				case EXPRESSION :
+					return new Expression(expression());
+				case PRINT :
+					return new Print(expression());
+				case IF :
+					return new If(expression(), statement(), statement());
+				case VAR : {
+					Var var = new Var(token(), expression());
+					var.slot = operand() - 1;
+					return var;
+				}
+				case WHILE :
+					return new While(expression(), statement());
+				case FOR : {
+					For loop = new For(statement(), expression(), expression(),
+							statement());
+					loop.slots = operand();
+					loop.counted = operand() != 0;
+					return loop;
+				}
+				default :
+					throw new IllegalStateException("Bad statement tag " + tag);
+			}
+		}
+
+		private Expr expression() {
+			byte tag = nodes.get();
+			switch (tag) {
+				case NULL :
+					return null;
+				case ASSIGN : {
+					Assign assign = new Assign(token(), expression());
+					assign.depth = operand() - 1;
+					assign.slot = operand() - 1;
+					return assign;
+				}
+				case BINARY :
+					return new Binary(expression(), token(), expression());
+				case GROUPING :
+					return new Grouping(expression());
+				case LITERAL :
+					return new Literal(literal());
+				case LOGICAL :
+					return new Logical(expression(), token(), expression());
+				case UNARY :
+					return new Unary(token(), expression());
+				case VARIABLE : {
+					Variable variable = new Variable(token());
+					variable.depth = operand() - 1;
+					variable.slot = operand() - 1;
+					return variable;
+				}
+				default :
+					throw new IllegalStateException("Bad expression tag "
+							+ tag);
+			}
+		}
+
+		private Object literal() {
+			byte tag = nodes.get();
+			switch (tag) {
+				case NIL :
+					return null;
+				case FALSE :
+					return false;
+				case TRUE :
+					return true;
+				case NUMBER :
+					return numbers[operand()];
+				case STRING :
+					return strings[operand()];
+				default :
+					throw new IllegalStateException("Bad literal tag " + tag);
+			}
+		}
+	}
+
+	// Unsigned LEB128.
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	// Tokens are visited in tree order, which can step back a line; small
+	// negative deltas stay one byte.
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
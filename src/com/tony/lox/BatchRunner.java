@@ -0,0 +1,207 @@
+package com.tony.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Runs many scripts in one JVM, for "jlox batch". Every script gets its own
+ * LoxEngine with captured stdout and stderr, and the scripts run
+ * concurrently on a work-stealing pool. Results are reported in input
+ * order, with the exit status "jlox script" would have had, each as soon as
+ * it and the scripts before it have finished; a script's output is not kept
+ * after that. Whatever a script throws is that script's failure only.
+ */
+class BatchRunner {
+	static final int OK = 0;
+	static final int SYNTAX_ERROR = 65;
+	static final int RUNTIME_ERROR = 70;
+	static final int IO_ERROR = 74;
+
+	// A script, and the name its output files get under the output
+	// directory.
+	static final class Script {
+		final Path path;
+		final Path name;
+
+		Script(Path path, Path name) {
+			this.path = path;
+			this.name = name;
+		}
+	}
+
+	private static final class Result {
+		final Script script;
+		final int status;
+		final long nanos;
+		// null once written to the output directory
+		final String out;
+		final String err;
+
+		Result(Script script, int status, long nanos, String out, String err) {
+			this.script = script;
+			this.status = status;
+			this.nanos = nanos;
+			this.out = out;
+			this.err = err;
+		}
+	}
+
+	private final LoxEngine options;
+	private final int jobs;
+	// null to print each script's output in the report instead
+	private final Path outputDir;
+
+	BatchRunner(LoxEngine options, int jobs, Path outputDir) {
+		this.options = options;
+		this.jobs = jobs;
+		this.outputDir = outputDir;
+	}
+
+	// Arguments are scripts, directories (searched for *.lox files) and
+	// "@file" lists with one path per line.
+	static List<Script> collect(List<String> args) throws IOException {
+		List<Script> scripts = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("@")) {
+				List<String> lines = Files.readAllLines(Paths.get(arg
+						.substring(1)), Charset.defaultCharset());
+				scripts.addAll(collect(lines.stream().map(String::trim)
+						.filter(line -> !line.isEmpty())
+						.collect(Collectors.toList())));
+				continue;
+			}
+
+			Path path = Paths.get(arg);
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> files = Files.walk(path)) {
+					files.filter(file -> file.toString().endsWith(".lox"))
+							.filter(Files::isRegularFile).sorted()
+							.forEach(file -> scripts.add(new Script(file, path
+									.relativize(file))));
+				}
+			} else {
+				scripts.add(new Script(path, path.getFileName()));
+			}
+		}
+		return scripts;
+	}
+
+	// Runs the scripts and writes the report. Returns the highest exit
+	// status of any script.
+	int run(List<Script> scripts, PrintStream report) throws IOException {
+		if (outputDir != null) {
+			Files.createDirectories(outputDir);
+		}
+
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(jobs);
+		int[] counts = new int[IO_ERROR + 1];
+		int status = OK;
+		List<String> failures = new ArrayList<>();
+		try (Writer statuses = outputDir == null ? Writer.nullWriter()
+				: Files.newBufferedWriter(outputDir.resolve("status.txt"),
+						Charset.defaultCharset())) {
+			List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+			for (Script script : scripts) {
+				tasks.add(pool.submit(() -> run(script)));
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				Result result = tasks.get(i).join();
+				// A finished task keeps its result, and with it the output.
+				tasks.set(i, null);
+				counts[result.status]++;
+				status = Math.max(status, result.status);
+				if (result.status != OK) {
+					failures.add(result.status + "\t" + result.script.path);
+				}
+				statuses.write(result.status + "\t" + millis(result.nanos)
+						+ "\t" + result.script.path + "\n");
+				if (result.out != null) {
+					report.println("==> " + result.script.path + " <==");
+					report.print(result.out);
+					report.print(result.err);
+					report.flush();
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		report.println();
+		for (String failure : failures) {
+			report.println(failure);
+		}
+		report.println("Ran " + scripts.size() + " scripts in "
+				+ millis(System.nanoTime() - start) + " ms on " + jobs
+				+ " threads: " + counts[OK] + " ok, " + counts[SYNTAX_ERROR]
+				+ " with errors (65), " + counts[RUNTIME_ERROR]
+				+ " with runtime errors (70), " + counts[IO_ERROR]
+				+ " with I/O errors (74).");
+		return status;
+	}
+
+	private Result run(Script script) {
+		long start = System.nanoTime();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream errStream = new PrintStream(err, true);
+		LoxEngine engine = options.withOutput(new PrintStream(out, true),
+				errStream);
+
+		int status;
+		try {
+			byte[] bytes = Files.readAllBytes(script.path);
+			engine.run(new String(bytes, Charset.defaultCharset()));
+			status = engine.hadError() ? SYNTAX_ERROR : engine
+					.hadRuntimeError() ? RUNTIME_ERROR : OK;
+		} catch (IOException e) {
+			errStream.println("Could not read " + script.path + ": " + e);
+			status = IO_ERROR;
+		} catch (StackOverflowError e) {
+			errStream.println("Stack overflow.");
+			status = RUNTIME_ERROR;
+		} catch (RuntimeException | Error e) {
+			// Failing output, running out of memory, or a bug: only this
+			// script is lost.
+			errStream.println("Script failed: " + e);
+			status = RUNTIME_ERROR;
+		}
+		long nanos = System.nanoTime() - start;
+
+		if (outputDir == null)
+			return new Result(script, status, nanos, out.toString(), err
+					.toString());
+
+		try {
+			Path file = outputDir.resolve(script.name + ".out");
+			Files.createDirectories(file.getParent());
+			Files.write(file, out.toByteArray());
+			if (err.size() > 0) {
+				Files.write(outputDir.resolve(script.name + ".err"), err
+						.toByteArray());
+			}
+		} catch (IOException e) {
+			// Reported with the results instead.
+			return new Result(script, IO_ERROR, nanos, "", "Could not write"
+					+ " the output of " + script.path + ": " + e + "\n");
+		}
+		return new Result(script, status, nanos, null, null);
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1_000_000;
+	}
+}
@@ -0,0 +1,352 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Compiles a resolved statement list into a Chunk for the VM. Locals live on
+ * the VM stack: each block reserves one stack slot per declaration at entry,
+ * so the Resolver's (depth, slot) pair maps directly to a fixed stack index.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	private static final int MAX_OPERAND = 0xffff;
+
+	private final Chunk chunk = new Chunk();
+	private final ErrorReporter errors;
+	// stack index of the first local of each enclosing block
+	private final List<Integer> blockBases = new ArrayList<>();
+	private int localCount = 0;
+	private int stackDepth = 0;
+	private int line = 1;
+
+	BytecodeCompiler(ErrorReporter errors) {
+		this.errors = errors;
+	}
+
+	Chunk compile(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			compile(statement);
+		}
+		emit(OpCode.RETURN, 0);
+		return chunk;
+	}
+
+	private void compile(Stmt stmt) {
+		stmt.accept(this);
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	// Emitting code:
+	// ////////////////////////////////////////////
+
+	private void emit(byte op, int stackEffect) {
+		chunk.write(op, line);
+		stackDepth += stackEffect;
+		if (stackDepth > chunk.maxStack) {
+			chunk.maxStack = stackDepth;
+		}
+	}
+
+	private void emit(byte op, int operand, int stackEffect) {
+		emit(op, stackEffect);
+		emitShort(operand);
+	}
+
+	private void emitShort(int value) {
+		chunk.write((value >> 8) & 0xff, line);
+		chunk.write(value & 0xff, line);
+	}
+
+	private int constant(Object value) {
+		int index = chunk.addConstant(value);
+		if (index > MAX_OPERAND) {
+			errors.error(line, "Too many constants in one chunk.");
+			return 0;
+		}
+		return index;
+	}
+
+	private int emitJump(byte op) {
+		emit(op, 0);
+		emitShort(0xffff);
+		return chunk.count - 2;
+	}
+
+	private void patchJump(int offset) {
+		// -2 to adjust for the jump offset itself.
+		int jump = chunk.count - offset - 2;
+		if (jump > MAX_OPERAND) {
+			errors.error(line, "Too much code to jump over.");
+		}
+		chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+		chunk.code[offset + 1] = (byte) (jump & 0xff);
+	}
+
+	private void emitLoop(int loopStart) {
+		emit(OpCode.LOOP, 0);
+		int offset = chunk.count - loopStart + 2;
+		if (offset > MAX_OPERAND) {
+			errors.error(line, "Loop body too large.");
+		}
+		emitShort(offset);
+	}
+
+	private int localIndex(int depth, int slot) {
+		return blockBases.get(blockBases.size() - 1 - depth) + slot;
+	}
+
+	// Statements:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		blockBases.add(localCount);
+		localCount += stmt.slots;
+		if (stmt.slots > 0) {
+			emit(OpCode.RESERVE, stmt.slots, stmt.slots);
+		}
+
+		for (Stmt statement : stmt.statements) {
+			compile(statement);
+		}
+
+		if (stmt.slots > 0) {
+			emit(OpCode.POPN, stmt.slots, -stmt.slots);
+		}
+		localCount -= stmt.slots;
+		blockBases.remove(blockBases.size() - 1);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		compile(stmt.expression);
+		emit(OpCode.POP, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		compile(stmt.expression);
+		emit(OpCode.PRINT, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		compile(stmt.condition);
+
+		int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP, -1);
+		compile(stmt.thenBranch);
+
+		int elseJump = emitJump(OpCode.JUMP);
+		patchJump(thenJump);
+		// The condition is still on the stack when jumping here.
+		stackDepth++;
+		emit(OpCode.POP, -1);
+		if (stmt.elseBranch != null) {
+			compile(stmt.elseBranch);
+		}
+		patchJump(elseJump);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		line = stmt.name.line;
+		if (stmt.initializer != null) {
+			compile(stmt.initializer);
+		} else {
+			emit(OpCode.NIL, 1);
+		}
+
+		if (stmt.slot < 0) {
+			emit(OpCode.DEFINE_GLOBAL, constant(stmt.name.lexeme), -1);
+		} else {
+			emit(OpCode.SET_LOCAL, localIndex(0, stmt.slot), 0);
+			emit(OpCode.POP, -1);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		int loopStart = chunk.count;
+		compile(stmt.condition);
+
+		int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP, -1);
+		compile(stmt.body);
+		emitLoop(loopStart);
+
+		patchJump(exitJump);
+		stackDepth++;
+		emit(OpCode.POP, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitForStmt(Stmt.For stmt) {
+		// Only a loop declaring its counter has a scope.
+		if (stmt.slots > 0) {
+			blockBases.add(localCount);
+			localCount += stmt.slots;
+			emit(OpCode.RESERVE, stmt.slots, stmt.slots);
+		}
+		if (stmt.initializer != null) {
+			compile(stmt.initializer);
+		}
+
+		int loopStart = chunk.count;
+		compile(stmt.condition);
+
+		int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP, -1);
+		compile(stmt.body);
+		if (stmt.increment != null) {
+			compile(stmt.increment);
+			emit(OpCode.POP, -1);
+		}
+		emitLoop(loopStart);
+
+		patchJump(exitJump);
+		stackDepth++;
+		emit(OpCode.POP, -1);
+
+		if (stmt.slots > 0) {
+			emit(OpCode.POPN, stmt.slots, -stmt.slots);
+			localCount -= stmt.slots;
+			blockBases.remove(blockBases.size() - 1);
+		}
+		return null;
+	}
+
+	// Expressions:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		compile(expr.value);
+
+		line = expr.name.line;
+		if (expr.depth < 0) {
+			emit(OpCode.SET_GLOBAL, constant(expr.name.lexeme), 0);
+		} else {
+			emit(OpCode.SET_LOCAL, localIndex(expr.depth, expr.slot), 0);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		compile(expr.left);
+		compile(expr.right);
+
+		line = expr.operator.line;
+		switch (expr.operator.type) {
+			case GREATER :
+				emit(OpCode.GREATER, -1);
+				break;
+			case GREATER_EQUAL :
+				emit(OpCode.GREATER_EQUAL, -1);
+				break;
+			case LESS :
+				emit(OpCode.LESS, -1);
+				break;
+			case LESS_EQUAL :
+				emit(OpCode.LESS_EQUAL, -1);
+				break;
+			case MINUS :
+				emit(OpCode.SUBTRACT, -1);
+				break;
+			case PLUS :
+				emit(OpCode.ADD, -1);
+				break;
+			case SLASH :
+				emit(OpCode.DIVIDE, -1);
+				break;
+			case STAR :
+				emit(OpCode.MULTIPLY, -1);
+				break;
+			case BANG_EQUAL :
+				emit(OpCode.NOT_EQUAL, -1);
+				break;
+			case EQUAL_EQUAL :
+				emit(OpCode.EQUAL, -1);
+				break;
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		compile(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		if (expr.value == null) {
+			emit(OpCode.NIL, 1);
+		} else if (expr.value == Boolean.TRUE) {
+			emit(OpCode.TRUE, 1);
+		} else if (expr.value == Boolean.FALSE) {
+			emit(OpCode.FALSE, 1);
+		} else {
+			emit(OpCode.CONSTANT, constant(expr.value), 1);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Expr.Logical expr) {
+		compile(expr.left);
+
+		line = expr.operator.line;
+		if (expr.operator.type == TokenType.OR) {
+			int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+			int endJump = emitJump(OpCode.JUMP);
+			patchJump(elseJump);
+			emit(OpCode.POP, -1);
+			compile(expr.right);
+			patchJump(endJump);
+		} else {
+			int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+			emit(OpCode.POP, -1);
+			compile(expr.right);
+			patchJump(endJump);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		compile(expr.right);
+
+		line = expr.operator.line;
+		switch (expr.operator.type) {
+			case MINUS :
+				emit(OpCode.NEGATE, 0);
+				break;
+			case BANG :
+				emit(OpCode.NOT, 0);
+				break;
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		line = expr.name.line;
+		if (expr.depth < 0) {
+			emit(OpCode.GET_GLOBAL, constant(expr.name.lexeme), 1);
+		} else {
+			emit(OpCode.GET_LOCAL, localIndex(expr.depth, expr.slot), 1);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,77 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A compiled program: the code array, its constant pool and a run-length
+ * encoded line table mapping code offsets back to source lines for runtime
+ * error reporting.
+ */
+class Chunk {
+	byte[] code = new byte[256];
+	int count = 0;
+	int maxStack = 0;
+
+	private final List<Object> constants = new ArrayList<>();
+	private final Map<Object, Integer> constantIndex = new HashMap<>();
+	private Object[] constantPool;
+
+	// lineOffsets[i] is the first code offset belonging to lineNumbers[i].
+	private int[] lineOffsets = new int[16];
+	private int[] lineNumbers = new int[16];
+	private int lineCount = 0;
+
+	void write(int b, int line) {
+		if (count == code.length) {
+			code = Arrays.copyOf(code, count * 2);
+		}
+		if (lineCount == 0 || lineNumbers[lineCount - 1] != line) {
+			if (lineCount == lineOffsets.length) {
+				lineOffsets = Arrays.copyOf(lineOffsets, lineCount * 2);
+				lineNumbers = Arrays.copyOf(lineNumbers, lineCount * 2);
+			}
+			lineOffsets[lineCount] = count;
+			lineNumbers[lineCount] = line;
+			lineCount++;
+		}
+		code[count++] = (byte) b;
+	}
+
+	// Returns the pool index of value, reusing an existing entry if the same
+	// constant was added before.
+	int addConstant(Object value) {
+		Integer index = constantIndex.get(value);
+		if (index == null) {
+			index = constants.size();
+			constants.add(value);
+			constantIndex.put(value, index);
+			constantPool = null;
+		}
+		return index;
+	}
+
+	Object[] constants() {
+		if (constantPool == null) {
+			constantPool = constants.toArray();
+		}
+		return constantPool;
+	}
+
+	int getLine(int offset) {
+		int low = 0;
+		int high = lineCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (lineOffsets[mid] <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return lineNumbers[low];
+	}
+}
@@ -0,0 +1,213 @@
+package com.tony.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/*
+ * Ahead-of-time compilation of Lox scripts to JVM classes. The source from
+ * ClassGenerator is compiled in memory with the JDK's own compiler and
+ * packaged into a jar; run() loads such a jar and executes the script.
+ */
+class ClassCompiler {
+	// Compiles the script to a jar next to it: dir/name.lox -> dir/name.jar
+	static Path compile(Path script, List<Stmt> statements,
+			ErrorReporter errors) throws IOException {
+		String className = className(script);
+		String source = new ClassGenerator(className).generate(statements);
+
+		Map<String, byte[]> classes = compile(className, source, errors);
+		if (classes == null)
+			return null;
+
+		String fileName = script.getFileName().toString();
+		int dot = fileName.lastIndexOf('.');
+		Path jar = script.resolveSibling((dot > 0
+				? fileName.substring(0, dot)
+				: fileName) + ".jar");
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.put(Attributes.Name.MAIN_CLASS, className);
+
+		try (JarOutputStream out = new JarOutputStream(
+				Files.newOutputStream(jar), manifest)) {
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/')
+						+ ".class"));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	// Runs a jar written by compile(). Returns false on a runtime error.
+	static boolean run(Path jar, Output out, ErrorReporter errors)
+			throws IOException {
+		String className;
+		try (JarFile file = new JarFile(jar.toFile())) {
+			className = file.getManifest().getMainAttributes()
+					.getValue(Attributes.Name.MAIN_CLASS);
+		}
+
+		try (URLClassLoader loader = new URLClassLoader(new URL[]{jar.toUri()
+				.toURL()}, ClassCompiler.class.getClassLoader())) {
+			Runnable script = (Runnable) loader.loadClass(className)
+					.getConstructor(LoxRuntime.class)
+					.newInstance(new LoxRuntime(out));
+			return LoxRuntime.execute(script, errors);
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Cannot load " + className + " from " + jar,
+					e);
+		}
+	}
+
+	// "loops.lox" -> "Loops", made a valid Java identifier.
+	private static String className(Path script) {
+		return className(script.getFileName().toString());
+	}
+
+	private static String className(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			result.append(Character.isJavaIdentifierPart(c) ? c : '_');
+		}
+		if (result.length() == 0
+				|| !Character.isJavaIdentifierStart(result.charAt(0))) {
+			result.insert(0, '_');
+		}
+		result.setCharAt(0, Character.toUpperCase(result.charAt(0)));
+
+		// The generated class imports LoxRuntime.
+		if (result.toString().equals("LoxRuntime")) {
+			result.append('_');
+		}
+		return result.toString();
+	}
+
+	// Class name -> class file, or null after reporting compile errors.
+	private static Map<String, byte[]> compile(String className,
+			String source, ErrorReporter errors) throws IOException {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) {
+			errors.error(0, "Compiling to classes needs a JDK, not just a JRE.");
+			return null;
+		}
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		Map<String, byte[]> classes = new HashMap<>();
+		try (StandardJavaFileManager standard = javac.getStandardFileManager(
+				diagnostics, null, null);
+				JavaFileManager files = new MemoryFileManager(standard,
+						classes)) {
+			List<String> options = Arrays.asList("-classpath", classPath(),
+					"-proc:none", "-nowarn");
+			boolean success = javac.getTask(null, files, diagnostics, options,
+					null, Arrays.asList(new Source(className, source))).call();
+			if (!success) {
+				for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+						.getDiagnostics()) {
+					if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+						errors.error(0, "Class compilation failed: "
+								+ diagnostic.getMessage(null));
+					}
+				}
+				return null;
+			}
+		}
+		return classes;
+	}
+
+	// Where the generated code finds LoxRuntime.
+	private static String classPath() {
+		String path = System.getProperty("java.class.path");
+		try {
+			URL location = LoxRuntime.class.getProtectionDomain()
+					.getCodeSource().getLocation();
+			path = new File(location.toURI()).getPath() + File.pathSeparator
+					+ path;
+		} catch (URISyntaxException | SecurityException
+				| NullPointerException e) {
+			// Fall back to the class path of this JVM.
+		}
+		return path;
+	}
+
+	private static class Source extends SimpleJavaFileObject {
+		private final String source;
+
+		Source(String className, String source) {
+			super(URI.create("string:///" + className + Kind.SOURCE.extension),
+					Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	// Collects the class files written by javac instead of writing them to
+	// disk.
+	private static class MemoryFileManager
+			extends
+				ForwardingJavaFileManager<StandardJavaFileManager> {
+		private final Map<String, byte[]> classes;
+
+		MemoryFileManager(StandardJavaFileManager files,
+				Map<String, byte[]> classes) {
+			super(files);
+			this.classes = classes;
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location,
+				String className, JavaFileObject.Kind kind, FileObject sibling) {
+			return new SimpleJavaFileObject(URI.create("memory:///"
+					+ className.replace('.', '/') + kind.extension), kind) {
+				@Override
+				public OutputStream openOutputStream() {
+					return new ByteArrayOutputStream() {
+						@Override
+						public void close() {
+							classes.put(className, toByteArray());
+						}
+					};
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,525 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Translates a resolved statement list into the Java source of a class that
+ * runs the script. Block locals become Java locals, and a local that is
+ * only ever assigned numbers is declared as a primitive double, so that
+ * arithmetic on it compiles to plain JVM double instructions. Everything
+ * else goes through the helpers in LoxRuntime.
+ *
+ * Which locals are numbers is found by generating the code repeatedly:
+ * every local starts out as a double and is demoted to Object once it is
+ * assigned a value that is not known to be a number, until nothing changes.
+ */
+class ClassGenerator implements Expr.Visitor<ClassGenerator.Code>,
+		Stmt.Visitor<Void> {
+	private static final int OBJECT = 0;
+	private static final int DOUBLE = 1;
+	private static final int BOOLEAN = 2;
+
+	// Top-level statements are spread over methods of about this much
+	// source, to stay clear of the JVM's 64k bytecode limit per method.
+	private static final int METHOD_SIZE = 16000;
+
+	// A generated Java expression and its static type.
+	static class Code {
+		final String text;
+		final int kind;
+		// A compile-time constant in Java (no variables, no calls).
+		final boolean constant;
+
+		Code(String text, int kind, boolean constant) {
+			this.text = text;
+			this.kind = kind;
+			this.constant = constant;
+		}
+
+		Code(String text, int kind) {
+			this(text, kind, false);
+		}
+	}
+
+	private final String className;
+	// blocks, and for loops declaring a counter
+	private final Map<Stmt, Integer> blockIds = new IdentityHashMap<>();
+	// ids of the enclosing blocks, innermost last
+	private final List<Integer> scopes = new ArrayList<>();
+	// Java names of the locals that may hold something other than a number
+	private final Set<String> objectLocals = new HashSet<>();
+	private final Set<String> declared = new HashSet<>();
+	private final Set<String> globals = new LinkedHashSet<>();
+	private boolean changed;
+
+	private StringBuilder out;
+	private int indent;
+	private int temporaries;
+
+	ClassGenerator(String className) {
+		this.className = className;
+	}
+
+	String generate(List<Stmt> statements) {
+		do {
+			changed = false;
+			declared.clear();
+			globals.clear();
+			out = new StringBuilder();
+			indent = 1;
+			generateMethods(statements);
+		} while (changed);
+
+		StringBuilder source = new StringBuilder();
+		source.append("import com.tony.lox.LoxRuntime;\n\n");
+		source.append("public final class ").append(className)
+				.append(" implements Runnable {\n");
+		for (String name : globals) {
+			source.append("\tprivate final int G_").append(name)
+					.append(";\n");
+		}
+		source.append("\tprivate final LoxRuntime lox;\n\n");
+		source.append("\tpublic ").append(className)
+				.append("(LoxRuntime lox) {\n\t\tthis.lox = lox;\n");
+		for (String name : globals) {
+			source.append("\t\tG_").append(name)
+					.append(" = lox.symbol(\"").append(name)
+					.append("\");\n");
+		}
+		source.append("\t}\n\n");
+		source.append("\tpublic static void main(String[] args) {\n");
+		source.append("\t\tLoxRuntime lox = new LoxRuntime();\n");
+		source.append("\t\tLoxRuntime.main(lox, new ").append(className)
+				.append("(lox));\n\t}\n");
+		source.append(out);
+		source.append("}\n");
+		return source.toString();
+	}
+
+	private void generateMethods(List<Stmt> statements) {
+		List<String> methods = new ArrayList<>();
+		StringBuilder body = new StringBuilder();
+		StringBuilder methodsOut = new StringBuilder();
+
+		int i = 0;
+		while (i < statements.size()) {
+			out = body;
+			body.setLength(0);
+			temporaries = 0;
+			indent = 2;
+			while (i < statements.size() && body.length() < METHOD_SIZE) {
+				generate(statements.get(i++));
+			}
+
+			String name = "s" + methods.size();
+			methods.add(name);
+			methodsOut.append("\n\tprivate void ").append(name)
+					.append("() {\n");
+			if (temporaries > 0) {
+				methodsOut.append("\t\tObject t0");
+				for (int t = 1; t < temporaries; t++) {
+					methodsOut.append(", t").append(t);
+				}
+				methodsOut.append(";\n");
+			}
+			methodsOut.append(body).append("\t}\n");
+		}
+
+		out = new StringBuilder();
+		out.append("\n\t@Override\n\tpublic void run() {\n");
+		for (String method : methods) {
+			out.append("\t\t").append(method).append("();\n");
+		}
+		out.append("\t}\n").append(methodsOut);
+	}
+
+	private void generate(Stmt stmt) {
+		stmt.accept(this);
+	}
+
+	private Code generate(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private void line(String text) {
+		for (int i = 0; i < indent; i++) {
+			out.append('\t');
+		}
+		out.append(text).append('\n');
+	}
+
+	// Locals:
+	// ////////////////////////////////////////////
+
+	// Java name of the local in the given slot of an enclosing block. Lox
+	// names cannot clash with Java keywords or each other after the suffix.
+	private String local(Token name, int depth) {
+		return name.lexeme + "_" + scopes.get(scopes.size() - 1 - depth);
+	}
+
+	private boolean isDouble(String local) {
+		return !objectLocals.contains(local);
+	}
+
+	// Value of an assignment to the local, demoting the local if needed.
+	private String store(String local, Code value) {
+		if (isDouble(local)) {
+			if (value.kind == DOUBLE)
+				return value.text;
+			objectLocals.add(local);
+			changed = true;
+		}
+		return object(value);
+	}
+
+	private String global(Token name) {
+		globals.add(name.lexeme);
+		return "G_" + name.lexeme;
+	}
+
+	// Conversions:
+	// ////////////////////////////////////////////
+
+	private static String object(Code code) {
+		switch (code.kind) {
+			case DOUBLE :
+				return "Double.valueOf(" + code.text + ")";
+			case BOOLEAN :
+				return "Boolean.valueOf(" + code.text + ")";
+			default :
+				return code.text;
+		}
+	}
+
+	private static String condition(Code code) {
+		if (code.kind == BOOLEAN)
+			return code.text;
+		return "LoxRuntime.isTruthy(" + object(code) + ")";
+	}
+
+	private static String number(double value) {
+		if (Double.isNaN(value))
+			return "Double.NaN";
+		if (Double.isInfinite(value))
+			return value > 0
+					? "Double.POSITIVE_INFINITY"
+					: "Double.NEGATIVE_INFINITY";
+		return "(" + Double.toString(value) + ")";
+	}
+
+	private static String string(String value) {
+		StringBuilder text = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				text.append('\\').append(c);
+			} else if (c == '\n') {
+				text.append("\\n");
+			} else if (c < 0x20) {
+				// No \\u escapes here: javac would turn \\u000a into a
+				// line break inside the literal.
+				text.append(String.format("\\%03o", (int) c));
+			} else if (c > 0x7e) {
+				text.append(String.format("\\u%04x", (int) c));
+			} else {
+				text.append(c);
+			}
+		}
+		return text.append('"').toString();
+	}
+
+	// Statements:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		line("{");
+		indent++;
+		scopes.add(blockId(stmt));
+		for (Stmt statement : stmt.statements) {
+			generate(statement);
+		}
+		scopes.remove(scopes.size() - 1);
+		indent--;
+		line("}");
+		return null;
+	}
+
+	private int blockId(Stmt stmt) {
+		Integer id = blockIds.get(stmt);
+		if (id == null) {
+			id = blockIds.size();
+			blockIds.put(stmt, id);
+		}
+		return id;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		line(statement(stmt.expression) + ";");
+		return null;
+	}
+
+	// Java only allows calls and assignments as statements.
+	private String statement(Expr expr) {
+		if (expr instanceof Expr.Assign)
+			return assignment((Expr.Assign) expr);
+		return "LoxRuntime.discard(" + generate(expr).text + ")";
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		line("lox.print(" + object(generate(stmt.expression)) + ");");
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		line("if (" + condition(generate(stmt.condition)) + ") {");
+		indent++;
+		generate(stmt.thenBranch);
+		indent--;
+		if (stmt.elseBranch != null) {
+			line("} else {");
+			indent++;
+			generate(stmt.elseBranch);
+			indent--;
+		}
+		line("}");
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		Code value = stmt.initializer != null
+				? generate(stmt.initializer)
+				: new Code("null", OBJECT, true);
+
+		if (stmt.slot < 0) {
+			line("lox.define(" + global(stmt.name) + ", " + object(value)
+					+ ");");
+			return null;
+		}
+
+		String local = local(stmt.name, 0);
+		String text = store(local, value);
+		if (declared.add(local)) {
+			// Redeclaring a name in the same block reuses its slot.
+			String type = isDouble(local) ? "double " : "Object ";
+			line(type + local + " = " + text + ";");
+		} else {
+			line(local + " = " + text + ";");
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		Code condition = generate(stmt.condition);
+		String test = condition(condition);
+		if (condition.constant) {
+			test = "LoxRuntime.test(" + test + ")";
+		}
+
+		line("while (" + test + ") {");
+		indent++;
+		generate(stmt.body);
+		indent--;
+		line("}");
+		return null;
+	}
+
+	// A counter only ever assigned numbers becomes a double, so counted
+	// loops need nothing special.
+	@Override
+	public Void visitForStmt(Stmt.For stmt) {
+		if (stmt.slots > 0) {
+			line("{");
+			indent++;
+			scopes.add(blockId(stmt));
+		}
+		if (stmt.initializer != null) {
+			generate(stmt.initializer);
+		}
+
+		Code condition = generate(stmt.condition);
+		String test = condition(condition);
+		if (condition.constant) {
+			test = "LoxRuntime.test(" + test + ")";
+		}
+		String update = stmt.increment != null
+				? statement(stmt.increment)
+				: "";
+
+		line("for (; " + test + "; " + update + ") {");
+		indent++;
+		generate(stmt.body);
+		indent--;
+		line("}");
+
+		if (stmt.slots > 0) {
+			scopes.remove(scopes.size() - 1);
+			indent--;
+			line("}");
+		}
+		return null;
+	}
+
+	// Expressions:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Code visitAssignExpr(Expr.Assign expr) {
+		String text = "(" + assignment(expr) + ")";
+		if (expr.depth >= 0 && isDouble(local(expr.name, expr.depth)))
+			return new Code(text, DOUBLE);
+		return new Code(text, OBJECT);
+	}
+
+	private String assignment(Expr.Assign expr) {
+		Code value = generate(expr.value);
+		if (expr.depth < 0)
+			return "lox.set(" + global(expr.name) + ", " + object(value) + ", "
+					+ expr.name.line + ")";
+
+		String local = local(expr.name, expr.depth);
+		return local + " = " + store(local, value);
+	}
+
+	@Override
+	public Code visitBinaryExpr(Expr.Binary expr) {
+		Code left = generate(expr.left);
+		Code right = generate(expr.right);
+		boolean numbers = left.kind == DOUBLE && right.kind == DOUBLE;
+		boolean constant = left.constant && right.constant;
+		int line = expr.operator.line;
+
+		switch (expr.operator.type) {
+			case GREATER :
+				return compare(">", "greater", left, right, line);
+			case GREATER_EQUAL :
+				return compare(">=", "greaterEqual", left, right, line);
+			case LESS :
+				return compare("<", "less", left, right, line);
+			case LESS_EQUAL :
+				return compare("<=", "lessEqual", left, right, line);
+			case MINUS :
+				return arithmetic("-", "subtract", left, right, line);
+			case SLASH :
+				return arithmetic("/", "divide", left, right, line);
+			case STAR :
+				return arithmetic("*", "multiply", left, right, line);
+			case PLUS :
+				if (numbers)
+					return new Code("(" + left.text + " + " + right.text + ")",
+							DOUBLE, constant);
+				return new Code(call("add", left, right, line), OBJECT);
+			case BANG_EQUAL : {
+				Code equal = equal(left, right);
+				return new Code("!" + equal.text, BOOLEAN, equal.constant);
+			}
+			default :
+				return equal(left, right);
+		}
+	}
+
+	private static String call(String helper, Code left, Code right, int line) {
+		return "LoxRuntime." + helper + "(" + object(left) + ", "
+				+ object(right) + ", " + line + ")";
+	}
+
+	private static Code arithmetic(String operator, String helper, Code left,
+			Code right, int line) {
+		if (left.kind == DOUBLE && right.kind == DOUBLE)
+			return new Code("(" + left.text + " " + operator + " "
+					+ right.text + ")", DOUBLE, left.constant && right.constant);
+		return new Code(call(helper, left, right, line), DOUBLE);
+	}
+
+	private static Code compare(String operator, String helper, Code left,
+			Code right, int line) {
+		if (left.kind == DOUBLE && right.kind == DOUBLE)
+			return new Code("(" + left.text + " " + operator + " "
+					+ right.text + ")", BOOLEAN, left.constant
+					&& right.constant);
+		return new Code(call(helper, left, right, line), BOOLEAN);
+	}
+
+	private static Code equal(Code left, Code right) {
+		if (left.kind == DOUBLE && right.kind == DOUBLE)
+			return new Code("LoxRuntime.same(" + left.text + ", " + right.text
+					+ ")", BOOLEAN);
+		if (left.kind == BOOLEAN && right.kind == BOOLEAN)
+			return new Code("(" + left.text + " == " + right.text + ")",
+					BOOLEAN, left.constant && right.constant);
+		return new Code("LoxRuntime.isEqual(" + object(left) + ", "
+				+ object(right) + ")", BOOLEAN);
+	}
+
+	@Override
+	public Code visitGroupingExpr(Expr.Grouping expr) {
+		return generate(expr.expression);
+	}
+
+	@Override
+	public Code visitLiteralExpr(Expr.Literal expr) {
+		Object value = expr.value;
+		if (value instanceof Double)
+			return new Code(number((double) value), DOUBLE, true);
+		if (value instanceof Boolean)
+			return new Code(value.toString(), BOOLEAN, true);
+		if (value instanceof String)
+			return new Code(string((String) value), OBJECT, true);
+		return new Code("null", OBJECT, true);
+	}
+
+	@Override
+	public Code visitLogicalExpr(Expr.Logical expr) {
+		Code left = generate(expr.left);
+		Code right = generate(expr.right);
+		boolean or = expr.operator.type == TokenType.OR;
+
+		// On booleans the Lox operators are the Java ones.
+		if (left.kind == BOOLEAN && right.kind == BOOLEAN)
+			return new Code("(" + left.text + (or ? " || " : " && ")
+					+ right.text + ")", BOOLEAN, left.constant
+					&& right.constant);
+
+		// Otherwise the result is one of the operands, so keep the left one
+		// in a temporary.
+		String temporary = "t" + temporaries++;
+		return new Code("(" + (or ? "" : "!") + "LoxRuntime.isTruthy("
+				+ temporary + " = " + object(left) + ") ? " + temporary
+				+ " : " + object(right) + ")", OBJECT);
+	}
+
+	@Override
+	public Code visitUnaryExpr(Expr.Unary expr) {
+		Code right = generate(expr.right);
+
+		if (expr.operator.type == TokenType.BANG)
+			return new Code("!" + condition(right), BOOLEAN, right.constant
+					&& right.kind == BOOLEAN);
+
+		if (right.kind == DOUBLE)
+			return new Code("(-" + right.text + ")", DOUBLE, right.constant);
+		return new Code("LoxRuntime.negate(" + object(right) + ", "
+				+ expr.operator.line + ")", DOUBLE);
+	}
+
+	@Override
+	public Code visitVariableExpr(Expr.Variable expr) {
+		if (expr.depth < 0)
+			return new Code("lox.get(" + global(expr.name) + ", "
+					+ expr.name.line + ")", OBJECT);
+
+		String local = local(expr.name, expr.depth);
+		return new Code(local, isDouble(local) ? DOUBLE : OBJECT);
+	}
+}
@@ -0,0 +1,480 @@
+package com.tony.lox;
+
+import java.util.List;
+
+/*
+ * Backend that walks a resolved tree once and turns every node into a Java
+ * closure, so that running the program involves neither accept()/visit
+ * double dispatch nor a switch over operator types.
+ *
+ * Subtrees that always produce a number (number literals and arithmetic)
+ * become NumberCode, and comparisons become TestCode, so nested arithmetic
+ * and loop conditions pass primitives instead of boxed values.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Code>,
+		Stmt.Visitor<ClosureCompiler.Action> {
+	final Environment globals;
+	private final Output out;
+	private final ErrorReporter errors;
+
+	interface Code {
+		Object run(Environment env);
+	}
+
+	interface NumberCode extends Code {
+		double number(Environment env);
+
+		@Override
+		default Object run(Environment env) {
+			return number(env);
+		}
+	}
+
+	interface TestCode extends Code {
+		boolean test(Environment env);
+
+		@Override
+		default Object run(Environment env) {
+			return test(env);
+		}
+	}
+
+	interface Action {
+		void run(Environment env);
+	}
+
+	ClosureCompiler(Output out, ErrorReporter errors) {
+		this(out, errors, false);
+	}
+
+	ClosureCompiler(Output out, ErrorReporter errors, boolean cacheStats) {
+		this.out = out;
+		this.errors = errors;
+		this.globals = new Environment(cacheStats);
+	}
+
+	void interpret(List<Stmt> statements) {
+		Action[] program = compileAll(statements);
+		try {
+			for (Action action : program) {
+				action.run(globals);
+			}
+		} catch (RuntimeError error) {
+			errors.runtimeError(error);
+		}
+	}
+
+	private Action[] compileAll(List<Stmt> statements) {
+		Action[] actions = new Action[statements.size()];
+		for (int i = 0; i < actions.length; i++) {
+			actions[i] = statements.get(i).accept(this);
+		}
+		return actions;
+	}
+
+	private Code compile(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private static TestCode test(Code code) {
+		if (code instanceof TestCode)
+			return (TestCode) code;
+		return env -> Interpreter.isTruthy(code.run(env));
+	}
+
+	private static void checkNumberOperands(Token operator, Object left,
+			Object right) {
+		if (left instanceof Double && right instanceof Double)
+			return;
+		throw new RuntimeError(operator, "Operands must be numbers.");
+	}
+
+	// Statements:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Action visitBlockStmt(Stmt.Block stmt) {
+		Action[] body = compileAll(stmt.statements);
+		int slots = stmt.slots;
+		// A block cannot run inside itself and nothing outlives it, so each
+		// compiled block reuses one environment.
+		Environment inner = new Environment(null, slots);
+		return env -> {
+			inner.reuse(env, slots);
+			try {
+				for (Action action : body) {
+					action.run(inner);
+				}
+			} finally {
+				inner.clear(slots);
+			}
+		};
+	}
+
+	@Override
+	public Action visitExpressionStmt(Stmt.Expression stmt) {
+		Code expression = compile(stmt.expression);
+		return env -> expression.run(env);
+	}
+
+	@Override
+	public Action visitPrintStmt(Stmt.Print stmt) {
+		Code expression = compile(stmt.expression);
+		return env -> out.print(expression.run(env));
+	}
+
+	@Override
+	public Action visitIfStmt(Stmt.If stmt) {
+		TestCode condition = test(compile(stmt.condition));
+		Action thenBranch = stmt.thenBranch.accept(this);
+		if (stmt.elseBranch == null) {
+			return env -> {
+				if (condition.test(env))
+					thenBranch.run(env);
+			};
+		}
+
+		Action elseBranch = stmt.elseBranch.accept(this);
+		return env -> {
+			if (condition.test(env)) {
+				thenBranch.run(env);
+			} else {
+				elseBranch.run(env);
+			}
+		};
+	}
+
+	@Override
+	public Action visitVarStmt(Stmt.Var stmt) {
+		Code initializer = stmt.initializer != null
+				? compile(stmt.initializer)
+				: env -> null;
+		Token name = stmt.name;
+		int slot = stmt.slot;
+
+		if (slot < 0)
+			return env -> globals.define(name, initializer.run(env));
+		return env -> env.defineAt(slot, initializer.run(env));
+	}
+
+	@Override
+	public Action visitWhileStmt(Stmt.While stmt) {
+		TestCode condition = test(compile(stmt.condition));
+		Action body = stmt.body.accept(this);
+		return env -> {
+			while (condition.test(env)) {
+				body.run(env);
+			}
+		};
+	}
+
+	@Override
+	public Action visitForStmt(Stmt.For stmt) {
+		Action initializer = stmt.initializer != null
+				? stmt.initializer.accept(this)
+				: null;
+		TestCode condition = test(compile(stmt.condition));
+		Action body = stmt.body.accept(this);
+		Code increment = stmt.increment != null
+				? compile(stmt.increment)
+				: null;
+
+		Action generic;
+		if (increment == null) {
+			generic = env -> {
+				while (condition.test(env)) {
+					body.run(env);
+				}
+			};
+		} else {
+			generic = env -> {
+				while (condition.test(env)) {
+					body.run(env);
+					increment.run(env);
+				}
+			};
+		}
+		Action loop = stmt.counted ? counted(stmt, body, generic) : generic;
+
+		int slots = stmt.slots;
+		if (slots == 0) {
+			if (initializer == null)
+				return loop;
+			return env -> {
+				initializer.run(env);
+				loop.run(env);
+			};
+		}
+
+		// The counter's environment is reused like a block's.
+		Environment inner = new Environment(null, slots);
+		return env -> {
+			inner.reuse(env, slots);
+			try {
+				initializer.run(inner);
+				loop.run(inner);
+			} finally {
+				inner.clear(slots);
+			}
+		};
+	}
+
+	// Runs the loop on a primitive counter, see Interpreter.runCounted(),
+	// or the generic loop if the counter does not start out as a number.
+	private Action counted(Stmt.For stmt, Action body, Action generic) {
+		int slot = ((Stmt.Var) stmt.initializer).slot;
+		Token operator = ((Expr.Binary) stmt.condition).operator;
+		TokenType type = operator.type;
+		Code limit = compile(((Expr.Binary) stmt.condition).right);
+		double step = Interpreter.step(stmt);
+
+		return env -> {
+			Object start = env.getAt(0, slot);
+			if (!(start instanceof Double)) {
+				generic.run(env);
+				return;
+			}
+
+			double counter = (double) start;
+			for (;;) {
+				Object value = limit.run(env);
+				if (!(value instanceof Double)) {
+					checkNumberOperands(operator, counter, value);
+				}
+				if (!Interpreter.compare(type, counter, (double) value))
+					return;
+				body.run(env);
+				counter += step;
+				env.defineAt(slot, counter);
+			}
+		};
+	}
+
+	// Expressions:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Code visitAssignExpr(Expr.Assign expr) {
+		Code value = compile(expr.value);
+		int depth = expr.depth;
+		int slot = expr.slot;
+
+		// Globals go through the node's inline cache.
+		if (depth < 0) {
+			return env -> {
+				Object result = value.run(env);
+				globals.assign(expr, result);
+				return result;
+			};
+		}
+		return env -> {
+			Object result = value.run(env);
+			env.assignAt(depth, slot, result);
+			return result;
+		};
+	}
+
+	@Override
+	public Code visitBinaryExpr(Expr.Binary expr) {
+		Code left = compile(expr.left);
+		Code right = compile(expr.right);
+		Token operator = expr.operator;
+
+		if (left instanceof NumberCode && right instanceof NumberCode)
+			return numberBinary(operator, (NumberCode) left,
+					(NumberCode) right);
+
+		switch (operator.type) {
+			case GREATER :
+				return (TestCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a > (double) b;
+				};
+			case GREATER_EQUAL :
+				return (TestCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a >= (double) b;
+				};
+			case LESS :
+				return (TestCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a < (double) b;
+				};
+			case LESS_EQUAL :
+				return (TestCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a <= (double) b;
+				};
+			case MINUS :
+				return (NumberCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a - (double) b;
+				};
+			case SLASH :
+				return (NumberCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a / (double) b;
+				};
+			case STAR :
+				return (NumberCode) env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					checkNumberOperands(operator, a, b);
+					return (double) a * (double) b;
+				};
+			case PLUS :
+				return env -> {
+					Object a = left.run(env);
+					Object b = right.run(env);
+					if (a instanceof Double && b instanceof Double)
+						return (double) a + (double) b;
+					if (Rope.isString(a) && Rope.isString(b))
+						return Rope.concat(a, b);
+					throw new RuntimeError(operator,
+							"Operands must be two numbers or two strings.");
+				};
+			case BANG_EQUAL :
+				return (TestCode) env -> !Interpreter.isEqual(left.run(env),
+						right.run(env));
+			default :
+				return (TestCode) env -> Interpreter.isEqual(left.run(env),
+						right.run(env));
+		}
+	}
+
+	// Both operands are known to be numbers.
+	private static Code numberBinary(Token operator, NumberCode left,
+			NumberCode right) {
+		switch (operator.type) {
+			case GREATER :
+				return (TestCode) env -> left.number(env) > right.number(env);
+			case GREATER_EQUAL :
+				return (TestCode) env -> left.number(env) >= right.number(env);
+			case LESS :
+				return (TestCode) env -> left.number(env) < right.number(env);
+			case LESS_EQUAL :
+				return (TestCode) env -> left.number(env) <= right.number(env);
+			case MINUS :
+				return (NumberCode) env -> left.number(env) - right.number(env);
+			case PLUS :
+				return (NumberCode) env -> left.number(env) + right.number(env);
+			case SLASH :
+				return (NumberCode) env -> left.number(env) / right.number(env);
+			case STAR :
+				return (NumberCode) env -> left.number(env) * right.number(env);
+			case BANG_EQUAL :
+				// Double.equals() semantics, like isEqual().
+				return (TestCode) env -> Double.doubleToLongBits(left
+						.number(env)) != Double.doubleToLongBits(right
+						.number(env));
+			default :
+				return (TestCode) env -> Double.doubleToLongBits(left
+						.number(env)) == Double.doubleToLongBits(right
+						.number(env));
+		}
+	}
+
+	@Override
+	public Code visitGroupingExpr(Expr.Grouping expr) {
+		return compile(expr.expression);
+	}
+
+	@Override
+	public Code visitLiteralExpr(Expr.Literal expr) {
+		Object value = expr.value;
+		if (value instanceof Double) {
+			double number = (double) value;
+			// Keeps the boxed value, instead of boxing on every run().
+			return new NumberCode() {
+				@Override
+				public double number(Environment env) {
+					return number;
+				}
+
+				@Override
+				public Object run(Environment env) {
+					return value;
+				}
+			};
+		}
+		if (value instanceof Boolean) {
+			boolean test = (boolean) value;
+			return (TestCode) env -> test;
+		}
+		return env -> value;
+	}
+
+	@Override
+	public Code visitLogicalExpr(Expr.Logical expr) {
+		Code left = compile(expr.left);
+		Code right = compile(expr.right);
+
+		// On booleans the result is the Java operator's.
+		if (left instanceof TestCode && right instanceof TestCode) {
+			TestCode a = (TestCode) left;
+			TestCode b = (TestCode) right;
+			if (expr.operator.type == TokenType.OR)
+				return (TestCode) env -> a.test(env) || b.test(env);
+			return (TestCode) env -> a.test(env) && b.test(env);
+		}
+
+		if (expr.operator.type == TokenType.OR) {
+			return env -> {
+				Object result = left.run(env);
+				if (Interpreter.isTruthy(result))
+					return result;
+				return right.run(env);
+			};
+		}
+		return env -> {
+			Object result = left.run(env);
+			if (!Interpreter.isTruthy(result))
+				return result;
+			return right.run(env);
+		};
+	}
+
+	@Override
+	public Code visitUnaryExpr(Expr.Unary expr) {
+		Code right = compile(expr.right);
+		Token operator = expr.operator;
+
+		if (operator.type == TokenType.BANG) {
+			TestCode test = test(right);
+			return (TestCode) env -> !test.test(env);
+		}
+
+		if (right instanceof NumberCode) {
+			NumberCode number = (NumberCode) right;
+			return (NumberCode) env -> -number.number(env);
+		}
+		return (NumberCode) env -> {
+			Object value = right.run(env);
+			if (!(value instanceof Double))
+				throw new RuntimeError(operator, "Operand must be a number.");
+			return -(double) value;
+		};
+	}
+
+	@Override
+	public Code visitVariableExpr(Expr.Variable expr) {
+		int depth = expr.depth;
+		int slot = expr.slot;
+
+		if (depth < 0)
+			return env -> globals.get(expr);
+		return env -> env.getAt(depth, slot);
+	}
+}
@@ -1,47 +1,157 @@
 package com.tony.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
 
 public class Environment {
-	private final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<>();
+	private Environment enclosing;
+	// Globals are looked up by symbol id, block scopes by the slot index the
+	// Resolver assigned to each declaration.
+	private final SymbolMap values;
+	private Object[] slots;
+	// Globals only: inline cache statistics, see get(Expr.Variable). Only
+	// counted when asked for, to keep global accesses to the check alone.
+	private final boolean cacheStats;
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
 
 	public Environment() {
+		this(false);
+	}
+
+	public Environment(boolean cacheStats) {
 		enclosing = null;
+		values = new SymbolMap();
+		slots = null;
+		this.cacheStats = cacheStats;
 	}
 
-	public Environment(Environment env) {
+	public Environment(Environment env, int size) {
 		enclosing = env;
+		values = null;
+		slots = new Object[size];
+		cacheStats = false;
 	}
 
-	void define(String name, Object value) {
-		values.put(name, value);
+	// Block environments are reused for later blocks once their own block
+	// has ended, see Interpreter.beginScope().
+	void reuse(Environment env, int size) {
+		enclosing = env;
+		if (slots.length < size) {
+			slots = new Object[size];
+		}
+	}
+
+	// Drops the values of a block that has ended.
+	void clear(int size) {
+		Arrays.fill(slots, 0, size, null);
+	}
+
+	void define(Token name, Object value) {
+		values.put(name.symbol, value);
 	}
 
 	Object get(Token name) {
-		if (values.containsKey(name.lexeme)) {
-			return values.get(name.lexeme);
+		int slot = values.find(name.symbol);
+		if (slot >= 0) {
+			return values.valueAt(slot);
 		}
-		if (enclosing != null)
-			return enclosing.get(name);
 
-		throw new RuntimeError(name, "Undefined variable '" + name.lexeme
-				+ "'.");
+		throw undefined(name);
 	}
 
 	void assign(Token name, Object value) {
-		if (values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
+		int slot = values.find(name.symbol);
+		if (slot >= 0) {
+			values.setAt(slot, value);
 			return;
 		}
 
-		if (enclosing != null) {
-			enclosing.assign(name, value);
+		throw undefined(name);
+	}
+
+	private static RuntimeError undefined(Token name) {
+		return new RuntimeError(name, "Undefined variable '" + name.lexeme
+				+ "'.");
+	}
+
+	// Globals through inline caches: each node remembers the slot of the
+	// map in which it last found its name and checks that the slot still
+	// holds it, which fails once the map has grown and moved its entries.
+	// The check makes the cache valid for any map, so the same tree can
+	// run against several global environments.
+	Object get(Expr.Variable expr) {
+		int slot = expr.globalSlot;
+		if (values.holds(slot, expr.name.symbol)) {
+			if (cacheStats) {
+				cacheHits++;
+			}
+			return values.valueAt(slot);
+		}
+
+		if (cacheStats) {
+			cacheMisses++;
+		}
+		slot = values.find(expr.name.symbol);
+		if (slot < 0)
+			throw undefined(expr.name);
+		expr.globalSlot = slot;
+		return values.valueAt(slot);
+	}
+
+	void assign(Expr.Assign expr, Object value) {
+		int slot = expr.globalSlot;
+		if (values.holds(slot, expr.name.symbol)) {
+			if (cacheStats) {
+				cacheHits++;
+			}
+			values.setAt(slot, value);
 			return;
 		}
 
-		throw new RuntimeError(name, "Undefined variable '" + name.lexeme
-				+ "'.");
+		if (cacheStats) {
+			cacheMisses++;
+		}
+		slot = values.find(expr.name.symbol);
+		if (slot < 0)
+			throw undefined(expr.name);
+		expr.globalSlot = slot;
+		values.setAt(slot, value);
+	}
+
+	String cacheReport() {
+		long lookups = cacheHits + cacheMisses;
+		return String.format("[inline cache] %d global lookups, %d hits,"
+				+ " %d misses (%.1f%% hits)", lookups, cacheHits, cacheMisses,
+				lookups == 0 ? 0.0 : 100.0 * cacheHits / lookups);
+	}
+
+	// Access to globals by symbol, for embedders.
+	void define(int symbol, Object value) {
+		values.put(symbol, value);
+	}
+
+	void forEach(ObjIntConsumer<Object> action) {
+		values.forEach(action);
+	}
+
+	void defineAt(int slot, Object value) {
+		slots[slot] = value;
+	}
+
+	Object getAt(int distance, int slot) {
+		return ancestor(distance).slots[slot];
+	}
+
+	void assignAt(int distance, int slot, Object value) {
+		ancestor(distance).slots[slot] = value;
+	}
+
+	private Environment ancestor(int distance) {
+		Environment environment = this;
+		for (int i = 0; i < distance; i++) {
+			environment = environment.enclosing;
+		}
+		return environment;
 	}
 }
@@ -0,0 +1,68 @@
+package com.tony.lox;
+
+import java.io.PrintStream;
+
+/*
+ * Collects the compile and runtime errors of one LoxEngine. The scanner,
+ * parser and backends report here instead of to static state, so that
+ * engines on different threads do not see each other's errors.
+ */
+class ErrorReporter {
+	private final PrintStream err;
+	// Flushed before an error is printed, so that errors come after the
+	// output that preceded them.
+	private Output out = null;
+	private boolean hadError = false;
+	private boolean hadRuntimeError = false;
+
+	ErrorReporter(PrintStream err) {
+		this.err = err;
+	}
+
+	void setOutput(Output out) {
+		this.out = out;
+	}
+
+	boolean hadError() {
+		return hadError;
+	}
+
+	boolean hadRuntimeError() {
+		return hadRuntimeError;
+	}
+
+	void reset() {
+		hadError = false;
+		hadRuntimeError = false;
+	}
+
+	void error(int line, String message) {
+		report(line, "", message);
+	}
+
+	void error(Token token, String message) {
+		if (token.type == TokenType.EOF) {
+			report(token.line, " at end", message);
+		} else {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+	}
+
+	private void report(int line, String where, String message) {
+		flushOutput();
+		err.println("\n[line " + line + "] Error" + where + ": " + message);
+		hadError = true;
+	}
+
+	void runtimeError(RuntimeError error) {
+		flushOutput();
+		err.println(error.getMessage() + "\n[line " + error.line + "]");
+		hadRuntimeError = true;
+	}
+
+	private void flushOutput() {
+		if (out != null) {
+			out.flush();
+		}
+	}
+}
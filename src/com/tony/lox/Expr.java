@@ -25,6 +25,9 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
+    int globalSlot = -1;
   }
 
   static class Binary extends Expr {
@@ -41,6 +44,7 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    int specialization;
   }
 
   static class Grouping extends Expr {
@@ -95,6 +99,7 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+    int specialization;
   }
 
   static class Variable extends Expr {
@@ -107,6 +112,9 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
+    int globalSlot = -1;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
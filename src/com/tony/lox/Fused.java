@@ -0,0 +1,148 @@
+package com.tony.lox;
+
+/*
+ * Superinstructions: nodes for shapes of resolved trees that are common in
+ * scripts, which the Interpreter runs in one step instead of one visit per
+ * child node and one environment lookup per variable reference. The Fuser
+ * puts them into the tree.
+ *
+ * Each extends the node it replaces and keeps all of its fields, so any
+ * visitor other than a Fused.Visitor sees the original node. Every fused
+ * node counts how often it ran.
+ */
+final class Fused {
+	private Fused() {
+	}
+
+	interface Visitor {
+		Object visitIncrementLocal(IncrementLocal expr);
+
+		Object visitCompareLocal(CompareLocal expr);
+
+		Object visitAppendLocal(AppendLocal expr);
+
+		void visitDefineLiteral(DefineLiteral stmt);
+	}
+
+	interface Node {
+		// how often the node ran
+		long fired();
+	}
+
+	// i = i + 1, i = i - 0.5: a local plus or minus a number literal.
+	static final class IncrementLocal extends Expr.Assign implements Node {
+		// negative for minus
+		final double step;
+		long fired = 0;
+
+		IncrementLocal(Expr.Assign assign, double step) {
+			super(assign.name, assign.value);
+			this.depth = assign.depth;
+			this.slot = assign.slot;
+			this.step = step;
+		}
+
+		@Override
+		public long fired() {
+			return fired;
+		}
+
+		@Override
+		<R> R accept(Expr.Visitor<R> visitor) {
+			if (visitor instanceof Fused.Visitor)
+				return cast(((Fused.Visitor) visitor)
+						.visitIncrementLocal(this));
+			return super.accept(visitor);
+		}
+	}
+
+	// i < 10: a local compared with a number literal.
+	static final class CompareLocal extends Expr.Binary implements Node {
+		final int depth;
+		final int slot;
+		final double constant;
+		long fired = 0;
+
+		CompareLocal(Expr.Binary binary, Expr.Variable local, double constant) {
+			super(binary.left, binary.operator, binary.right);
+			this.specialization = binary.specialization;
+			this.depth = local.depth;
+			this.slot = local.slot;
+			this.constant = constant;
+		}
+
+		@Override
+		public long fired() {
+			return fired;
+		}
+
+		@Override
+		<R> R accept(Expr.Visitor<R> visitor) {
+			if (visitor instanceof Fused.Visitor)
+				return cast(((Fused.Visitor) visitor)
+						.visitCompareLocal(this));
+			return super.accept(visitor);
+		}
+	}
+
+	// s = s + x: anything added to a local, typically strings.
+	static final class AppendLocal extends Expr.Assign implements Node {
+		final Token operator;
+		final Expr operand;
+		long fired = 0;
+
+		AppendLocal(Expr.Assign assign, Expr.Binary add) {
+			super(assign.name, add);
+			this.depth = assign.depth;
+			this.slot = assign.slot;
+			this.operator = add.operator;
+			this.operand = add.right;
+		}
+
+		@Override
+		public long fired() {
+			return fired;
+		}
+
+		@Override
+		<R> R accept(Expr.Visitor<R> visitor) {
+			if (visitor instanceof Fused.Visitor)
+				return cast(((Fused.Visitor) visitor)
+						.visitAppendLocal(this));
+			return super.accept(visitor);
+		}
+	}
+
+	// var x = 1: a variable declared with a literal value.
+	static final class DefineLiteral extends Stmt.Var implements Node {
+		final Object value;
+		long fired = 0;
+
+		DefineLiteral(Stmt.Var var) {
+			super(var.name, var.initializer);
+			this.slot = var.slot;
+			this.value = ((Expr.Literal) var.initializer).value;
+		}
+
+		@Override
+		public long fired() {
+			return fired;
+		}
+
+		@Override
+		<R> R accept(Stmt.Visitor<R> visitor) {
+			if (visitor instanceof Fused.Visitor) {
+				((Fused.Visitor) visitor).visitDefineLiteral(this);
+				return null;
+			}
+			return super.accept(visitor);
+		}
+	}
+
+	// The visitor is both a Fused.Visitor and an Expr.Visitor<R>, so its
+	// result is an R.
+	@SuppressWarnings("unchecked")
+	private static <R> R cast(Object result) {
+		return (R) result;
+	}
+}
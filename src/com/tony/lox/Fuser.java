@@ -0,0 +1,262 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Pass over a resolved tree, run for the tree-walking Interpreter only,
+ * that replaces common shapes with the superinstructions in Fused. Nodes
+ * on the path to a replaced node are copied with their resolved state;
+ * everything else is shared with the original tree.
+ *
+ * The fused nodes are kept to report how often each kind ran.
+ */
+class Fuser implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	private final List<Fused.IncrementLocal> increments = new ArrayList<>();
+	private final List<Fused.CompareLocal> comparisons = new ArrayList<>();
+	private final List<Fused.AppendLocal> appends = new ArrayList<>();
+	private final List<Fused.DefineLiteral> definitions = new ArrayList<>();
+
+	List<Stmt> fuse(List<Stmt> statements) {
+		List<Stmt> result = new ArrayList<>(statements.size());
+		for (Stmt statement : statements) {
+			result.add(fuse(statement));
+		}
+		return result;
+	}
+
+	String report() {
+		return "[fuser] " + count("increment-local", increments) + ", "
+				+ count("compare-local", comparisons) + ", "
+				+ count("append-local", appends) + ", "
+				+ count("define-literal", definitions);
+	}
+
+	private static String count(String kind, List<? extends Fused.Node> nodes) {
+		long runs = 0;
+		for (Fused.Node node : nodes) {
+			runs += node.fired();
+		}
+		return kind + " " + nodes.size() + " nodes ran " + runs + " times";
+	}
+
+	private Stmt fuse(Stmt stmt) {
+		return stmt == null ? null : stmt.accept(this);
+	}
+
+	private Expr fuse(Expr expr) {
+		return expr == null ? null : expr.accept(this);
+	}
+
+	private static boolean isNumber(Expr expr) {
+		return expr instanceof Expr.Literal
+				&& ((Expr.Literal) expr).value instanceof Double;
+	}
+
+	private static boolean isLocal(Expr expr, int depth, int slot) {
+		return expr instanceof Expr.Variable
+				&& ((Expr.Variable) expr).depth == depth
+				&& ((Expr.Variable) expr).slot == slot;
+	}
+
+	// Statements:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+		boolean changed = false;
+		for (Stmt statement : stmt.statements) {
+			Stmt fused = fuse(statement);
+			changed |= fused != statement;
+			statements.add(fused);
+		}
+		if (!changed)
+			return stmt;
+
+		Stmt.Block block = new Stmt.Block(statements);
+		block.slots = stmt.slots;
+		return block;
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = fuse(stmt.expression);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = fuse(stmt.expression);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = fuse(stmt.condition);
+		Stmt thenBranch = fuse(stmt.thenBranch);
+		Stmt elseBranch = fuse(stmt.elseBranch);
+		if (condition == stmt.condition && thenBranch == stmt.thenBranch
+				&& elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		if (stmt.initializer instanceof Expr.Literal) {
+			Fused.DefineLiteral fused = new Fused.DefineLiteral(stmt);
+			definitions.add(fused);
+			return fused;
+		}
+
+		Expr initializer = fuse(stmt.initializer);
+		if (initializer == stmt.initializer)
+			return stmt;
+		Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+		var.slot = stmt.slot;
+		return var;
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = fuse(stmt.condition);
+		Stmt body = fuse(stmt.body);
+		if (condition == stmt.condition && body == stmt.body)
+			return stmt;
+		return new Stmt.While(condition, body);
+	}
+
+	// Counted loops keep their increment, which the Interpreter does not
+	// evaluate.
+	@Override
+	public Stmt visitForStmt(Stmt.For stmt) {
+		Stmt initializer = fuse(stmt.initializer);
+		Expr condition = stmt.condition;
+		Expr increment = stmt.increment;
+		if (!stmt.counted) {
+			condition = fuse(condition);
+			increment = fuse(increment);
+		}
+		Stmt body = fuse(stmt.body);
+		if (initializer == stmt.initializer && condition == stmt.condition
+				&& increment == stmt.increment && body == stmt.body)
+			return stmt;
+
+		Stmt.For loop = new Stmt.For(initializer, condition, increment,
+				body);
+		loop.slots = stmt.slots;
+		loop.counted = stmt.counted;
+		return loop;
+	}
+
+	// Expressions:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		if (expr.depth >= 0 && expr.value instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr.value;
+			TokenType type = binary.operator.type;
+			if ((type == TokenType.PLUS || type == TokenType.MINUS)
+					&& isLocal(binary.left, expr.depth, expr.slot)) {
+				if (isNumber(binary.right)) {
+					double step = (double) ((Expr.Literal) binary.right).value;
+					if (type == TokenType.MINUS) {
+						step = -step;
+					}
+					Fused.IncrementLocal fused = new Fused.IncrementLocal(
+							expr, step);
+					increments.add(fused);
+					return fused;
+				}
+				if (type == TokenType.PLUS) {
+					Expr operand = fuse(binary.right);
+					Expr.Binary add = operand == binary.right
+							? binary
+							: new Expr.Binary(binary.left, binary.operator,
+									operand);
+					Fused.AppendLocal fused = new Fused.AppendLocal(expr,
+							add);
+					appends.add(fused);
+					return fused;
+				}
+			}
+		}
+
+		Expr value = fuse(expr.value);
+		if (value == expr.value)
+			return expr;
+		Expr.Assign assign = new Expr.Assign(expr.name, value);
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		return assign;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		switch (expr.operator.type) {
+			case GREATER :
+			case GREATER_EQUAL :
+			case LESS :
+			case LESS_EQUAL :
+				if (expr.left instanceof Expr.Variable
+						&& ((Expr.Variable) expr.left).depth >= 0
+						&& isNumber(expr.right)) {
+					Fused.CompareLocal fused = new Fused.CompareLocal(expr,
+							(Expr.Variable) expr.left,
+							(double) ((Expr.Literal) expr.right).value);
+					comparisons.add(fused);
+					return fused;
+				}
+				break;
+			default :
+				break;
+		}
+
+		Expr left = fuse(expr.left);
+		Expr right = fuse(expr.right);
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return new Expr.Binary(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = fuse(expr.expression);
+		if (expression == expr.expression)
+			return expr;
+		return new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = fuse(expr.left);
+		Expr right = fuse(expr.right);
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return new Expr.Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = fuse(expr.right);
+		if (right == expr.right)
+			return expr;
+		return new Expr.Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return expr;
+	}
+}
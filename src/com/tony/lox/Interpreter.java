@@ -1,5 +1,6 @@
 package com.tony.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 import com.tony.lox.Expr.Assign;
@@ -11,14 +12,43 @@ import com.tony.lox.Expr.Unary;
 import com.tony.lox.Expr.Variable;
 import com.tony.lox.Stmt.Block;
 import com.tony.lox.Stmt.Expression;
+import com.tony.lox.Stmt.For;
 import com.tony.lox.Stmt.If;
 import com.tony.lox.Stmt.Print;
 import com.tony.lox.Stmt.Var;
 import com.tony.lox.Stmt.While;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter
+		implements
+			Expr.Visitor<Object>,
+			Stmt.Visitor<Void>,
+			Fused.Visitor {
+
+	final Environment globals;
+	Environment environment;
+	// Block environments by nesting depth. Blocks end in the reverse order
+	// they begin and nothing refers to a block's environment after it ends
+	// (there are no closures), so every block at a depth reuses one.
+	private Environment[] scopes = new Environment[16];
+	private int depth = 0;
+	final Output out;
+	private final ErrorReporter errors;
+
+	Interpreter() {
+		this(new Output(System.out), new ErrorReporter(System.err));
+	}
 
-	private Environment environment = new Environment();
+	Interpreter(Output out, ErrorReporter errors) {
+		this(out, errors, false);
+	}
+
+	// cacheStats counts global inline cache hits for cacheReport().
+	Interpreter(Output out, ErrorReporter errors, boolean cacheStats) {
+		this.out = out;
+		this.errors = errors;
+		this.globals = new Environment(cacheStats);
+		this.environment = globals;
+	}
 
 	void interpret(List<Stmt> statements) {
 		try {
@@ -26,13 +56,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				execute(statement);
 			}
 		} catch (RuntimeError error) {
-			Lox.runtimeError(error);
+			errors.runtimeError(error);
 		}
 	}
-	private void execute(Stmt stmt) {
+	void execute(Stmt stmt) {
 		stmt.accept(this);
 	}
-	private String stringify(Object object) {
+	static String stringify(Object object) {
 		if (object == null)
 			return "nil";
 
@@ -53,37 +83,41 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		Object left = evaluate(expr.left);
 		Object right = evaluate(expr.right);
 
-		switch (expr.operator.type) {
+		return applyBinary(expr.operator, left, right);
+	}
+
+	static Object applyBinary(Token operator, Object left, Object right) {
+		switch (operator.type) {
 			case GREATER :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left > (double) right;
 			case GREATER_EQUAL :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left >= (double) right;
 			case LESS :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left < (double) right;
 			case LESS_EQUAL :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left <= (double) right;
 			case MINUS :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left - (double) right;
 			case PLUS :
 				if (left instanceof Double && right instanceof Double) {
 					return (double) left + (double) right;
 				}
 
-				if (left instanceof String && right instanceof String) {
-					return (String) left + (String) right;
+				if (Rope.isString(left) && Rope.isString(right)) {
+					return Rope.concat(left, right);
 				}
-				throw new RuntimeError(expr.operator,
+				throw new RuntimeError(operator,
 						"Operands must be two numbers or two strings.");
 			case SLASH :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left / (double) right;
 			case STAR :
-				checkNumberOperands(expr.operator, left, right);
+				checkNumberOperands(operator, left, right);
 				return (double) left * (double) right;
 			case BANG_EQUAL :
 				return !isEqual(left, right);
@@ -109,9 +143,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public Object visitUnaryExpr(Unary expr) {
 		Object right = evaluate(expr.right);
 
-		switch (expr.operator.type) {
+		return applyUnary(expr.operator, right);
+	}
+
+	static Object applyUnary(Token operator, Object right) {
+		switch (operator.type) {
 			case MINUS :
-				checkNumberOperand(expr.operator, right);
+				checkNumberOperand(operator, right);
 				return -(double) right;
 			case BANG :
 				return !isTruthy(right);
@@ -121,24 +159,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
-	private void checkNumberOperand(Token operator, Object operand) {
+	private static void checkNumberOperand(Token operator, Object operand) {
 		if (operand instanceof Double)
 			return;
 		throw new RuntimeError(operator, "Operand must be a number.");
 	}
 
-	private void checkNumberOperands(Token operator, Object left, Object right) {
+	private static void checkNumberOperands(Token operator, Object left,
+			Object right) {
 		if (left instanceof Double && right instanceof Double)
 			return;
 
 		throw new RuntimeError(operator, "Operands must be numbers.");
 	}
 
-	private Object evaluate(Expr expr) {
+	Object evaluate(Expr expr) {
 		return expr.accept(this);
 	}
 
-	private boolean isTruthy(Object object) {
+	static boolean isTruthy(Object object) {
 		if (object == null)
 			return false;
 		if (object instanceof Boolean)
@@ -146,12 +185,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return true;
 	}
 
-	private boolean isEqual(Object a, Object b) {
+	static boolean isEqual(Object a, Object b) {
 		// nil is only equal to nil.
 		if (a == null && b == null)
 			return true;
 		if (a == null)
 			return false;
+		if (a instanceof Rope || b instanceof Rope)
+			return Rope.equal(a, b);
 
 		return a.equals(b);
 	}
@@ -165,7 +206,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitPrintStmt(Print stmt) {
 		Object value = evaluate(stmt.expression);
-		System.out.println(stringify(value));
+		out.print(value);
 		return null;
 	}
 
@@ -176,29 +217,65 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			value = evaluate(stmt.initializer);
 		}
 
-		environment.define(stmt.name.lexeme, value);
+		if (stmt.slot < 0) {
+			globals.define(stmt.name, value);
+		} else {
+			environment.defineAt(stmt.slot, value);
+		}
 		return null;
 	}
 
 	@Override
 	public Object visitVariableExpr(Variable expr) {
-		return environment.get(expr.name);
+		if (expr.depth < 0)
+			return globals.get(expr);
+		return environment.getAt(expr.depth, expr.slot);
 	}
 
 	@Override
 	public Object visitAssignExpr(Assign expr) {
 		Object value = evaluate(expr.value);
 
-		environment.assign(expr.name, value);
+		if (expr.depth < 0) {
+			globals.assign(expr, value);
+		} else {
+			environment.assignAt(expr.depth, expr.slot, value);
+		}
 		return value;
 	}
 
 	@Override
 	public Void visitBlockStmt(Block stmt) {
-		executeBlock(stmt.statements, new Environment(environment));
+		Environment scope = beginScope(stmt.slots);
+		try {
+			executeBlock(stmt.statements, scope);
+		} finally {
+			endScope(scope, stmt.slots);
+		}
 		return null;
 	}
 
+	// An environment for a block inside the current environment.
+	Environment beginScope(int slots) {
+		if (depth == scopes.length) {
+			scopes = Arrays.copyOf(scopes, depth * 2);
+		}
+		Environment scope = scopes[depth];
+		if (scope == null) {
+			scope = new Environment(environment, slots);
+			scopes[depth] = scope;
+		} else {
+			scope.reuse(environment, slots);
+		}
+		depth++;
+		return scope;
+	}
+
+	void endScope(Environment scope, int slots) {
+		scope.clear(slots);
+		depth--;
+	}
+
 	void executeBlock(List<Stmt> statements, Environment environment) {
 		Environment previous = this.environment;
 		try {
@@ -245,4 +322,133 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	@Override
+	public Void visitForStmt(For stmt) {
+		if (stmt.slots == 0) {
+			if (stmt.initializer != null) {
+				execute(stmt.initializer);
+			}
+			runFor(stmt);
+			return null;
+		}
+
+		Environment previous = environment;
+		Environment scope = beginScope(stmt.slots);
+		try {
+			environment = scope;
+			execute(stmt.initializer);
+			runFor(stmt);
+		} finally {
+			environment = previous;
+			endScope(scope, stmt.slots);
+		}
+		return null;
+	}
+
+	// The loop of a for statement, once its initializer has run.
+	void runFor(For stmt) {
+		if (stmt.counted && runCounted(stmt))
+			return;
+
+		while (isTruthy(evaluate(stmt.condition))) {
+			execute(stmt.body);
+			if (stmt.increment != null) {
+				evaluate(stmt.increment);
+			}
+		}
+	}
+
+	// Runs a loop the Resolver marked as counted on a primitive counter,
+	// which only the body reads from its slot. The limit is evaluated
+	// every iteration, as in the condition. Returns false without running
+	// anything if the counter does not start out as a number.
+	private boolean runCounted(For stmt) {
+		int slot = ((Var) stmt.initializer).slot;
+		Object start = environment.getAt(0, slot);
+		if (!(start instanceof Double))
+			return false;
+
+		Binary condition = (Binary) stmt.condition;
+		double step = step(stmt);
+		double counter = (double) start;
+		for (;;) {
+			Object limit = evaluate(condition.right);
+			if (!(limit instanceof Double)) {
+				// Fails like the condition would.
+				applyBinary(condition.operator, counter, limit);
+			}
+			if (!compare(condition.operator.type, counter, (double) limit))
+				return true;
+			execute(stmt.body);
+			counter += step;
+			environment.defineAt(slot, counter);
+		}
+	}
+
+	// What a counted loop adds to its counter every iteration.
+	static double step(For stmt) {
+		Binary increment = (Binary) ((Assign) stmt.increment).value;
+		double step = (double) ((Literal) increment.right).value;
+		return increment.operator.type == TokenType.MINUS ? -step : step;
+	}
+
+	static boolean compare(TokenType type, double left, double right) {
+		switch (type) {
+			case GREATER :
+				return left > right;
+			case GREATER_EQUAL :
+				return left >= right;
+			case LESS :
+				return left < right;
+			default :
+				return left <= right;
+		}
+	}
+
+	// Superinstructions, see Fuser. Values of other types take the generic
+	// path, which reports the same errors.
+	// ////////////////////////////////////////////
+
+	@Override
+	public Object visitIncrementLocal(Fused.IncrementLocal expr) {
+		expr.fired++;
+		Object value = environment.getAt(expr.depth, expr.slot);
+		if (!(value instanceof Double))
+			return visitAssignExpr(expr);
+
+		Object result = (double) value + expr.step;
+		environment.assignAt(expr.depth, expr.slot, result);
+		return result;
+	}
+
+	@Override
+	public Object visitCompareLocal(Fused.CompareLocal expr) {
+		expr.fired++;
+		Object value = environment.getAt(expr.depth, expr.slot);
+		if (!(value instanceof Double))
+			return applyBinary(expr.operator, value, expr.constant);
+		return compare(expr.operator.type, (double) value, expr.constant);
+	}
+
+	@Override
+	public Object visitAppendLocal(Fused.AppendLocal expr) {
+		expr.fired++;
+		Object left = environment.getAt(expr.depth, expr.slot);
+		Object right = evaluate(expr.operand);
+		Object result = Rope.isString(left) && Rope.isString(right)
+				? Rope.concat(left, right)
+				: applyBinary(expr.operator, left, right);
+		environment.assignAt(expr.depth, expr.slot, result);
+		return result;
+	}
+
+	@Override
+	public void visitDefineLiteral(Fused.DefineLiteral stmt) {
+		stmt.fired++;
+		if (stmt.slot < 0) {
+			globals.define(stmt.name, stmt.value);
+		} else {
+			environment.defineAt(stmt.slot, stmt.value);
+		}
+	}
 }
@@ -3,92 +3,204 @@ package com.tony.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
+// Command line front end over a LoxEngine.
 public class Lox {
-	private static final Interpreter interpreter = new Interpreter();
-	private static boolean hadError = false;
-	private static boolean hadRuntimeError = false;
-
 	public static void main(String[] args) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: jlox [script]");
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		LoxEngine engine = new LoxEngine();
+
+		// "compile" and "run" work on compiled classes instead of
+		// interpreting the script; "batch" runs many scripts.
+		String command = null;
+		int first = 0;
+		if (args.length > 0
+				&& (args[0].equals("compile") || args[0].equals("run")
+						|| args[0].equals("batch"))) {
+			command = args[0];
+			first = 1;
+		}
+
+		List<String> scripts = new ArrayList<>();
+		boolean jitLog = false;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		Path output = null;
+		// Print statement output: flushed at the end unless set otherwise,
+		// or after every line in the REPL.
+		Output.FlushPolicy flush = null;
+		int flushSize = Output.DEFAULT_FLUSH_SIZE;
+		Path outFile = null;
+		boolean profile = false;
+		Path stacks = null;
+		int jitThreshold = TracingInterpreter.DEFAULT_THRESHOLD;
+		for (int i = first; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--vm")) {
+				engine.setBackend(LoxEngine.Backend.VM);
+			} else if (arg.equals("--closures")) {
+				engine.setBackend(LoxEngine.Backend.CLOSURES);
+			} else if (arg.equals("--compact-tokens")) {
+				engine.setCompactTokens(true);
+			} else if (arg.equals("--optimize")) {
+				engine.setOptimize(true);
+			} else if (arg.equals("--fuse")) {
+				engine.setFuse(true);
+			} else if (arg.equals("--cache-stats")) {
+				engine.setCacheStats(true);
+			} else if (arg.equals("--specialize")) {
+				engine.setBackend(LoxEngine.Backend.SPECIALIZING);
+			} else if (arg.equals("--jit")) {
+				engine.setBackend(LoxEngine.Backend.TRACING_JIT);
+			} else if (arg.equals("--jit-log")) {
+				jitLog = true;
+			} else if (arg.startsWith("--jit-threshold=")) {
+				jitThreshold = Integer.parseInt(arg.substring(arg
+						.indexOf('=') + 1));
+			} else if (arg.equals("--profile")) {
+				profile = true;
+			} else if (arg.startsWith("--profile-stacks=")) {
+				stacks = Paths.get(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.startsWith("--ast-cache=")) {
+				engine.setAstCache(Paths.get(arg.substring(arg.indexOf('=')
+						+ 1)));
+			} else if (arg.startsWith("--jobs=")) {
+				jobs = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.startsWith("--flush=")) {
+				flush = Output.FlushPolicy.valueOf(arg.substring(arg
+						.indexOf('=') + 1).toUpperCase(Locale.ROOT));
+			} else if (arg.startsWith("--flush-size=")) {
+				flushSize = Integer.parseInt(arg.substring(arg.indexOf('=')
+						+ 1));
+			} else if (arg.startsWith("--out-file=")) {
+				outFile = Paths.get(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.startsWith("--output=")) {
+				output = Paths.get(arg.substring(arg.indexOf('=') + 1));
+			} else if (!arg.startsWith("--")
+					&& (scripts.isEmpty() || "batch".equals(command))) {
+				scripts.add(arg);
+			} else {
+				usage();
+				return;
+			}
+		}
+		engine.setJit(jitThreshold, jitLog);
+		engine.setProfile(profile || stacks != null);
+
+		String script = scripts.isEmpty() ? null : scripts.get(0);
+		Output out = outFile == null ? new Output(System.out) : new Output(
+				FileChannel.open(outFile, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE), Charset.defaultCharset());
+		if (flush == null) {
+			flush = command == null && script == null
+					? Output.FlushPolicy.LINE
+					: Output.FlushPolicy.EXIT;
+		}
+		out.setFlushPolicy(flush);
+		out.setFlushSize(flushSize);
+		engine.setOutput(out);
+
+		if (command != null && script == null) {
+			usage();
+		} else if ("batch".equals(command)) {
+			BatchRunner batch = new BatchRunner(engine, jobs, output);
+			int status = batch.run(BatchRunner.collect(scripts), System.out);
+			if (status != 0)
+				System.exit(status);
+		} else if ("compile".equals(command)) {
+			compileFile(engine, script);
+		} else if ("run".equals(command)) {
+			engine.runClass(Paths.get(script));
+			exit(engine);
+		} else if (script != null) {
+			runFile(engine, script);
+			writeProfile(engine, profile, stacks);
+			exit(engine);
 		} else {
-			runPrompt();
+			runPrompt(engine);
 		}
 
 	}
 
-	private static void runPrompt() throws IOException {
+	private static void usage() {
+		System.out.println("Usage: jlox [--compact-tokens] [--optimize]"
+				+ " [--ast-cache=DIR]"
+				+ " [--vm | --closures | --specialize | --jit]"
+				+ " [script]");
+		System.out.println("       interpreter options: [--fuse]"
+				+ " [--cache-stats]");
+		System.out.println("       jit options: [--jit-threshold=N]"
+				+ " [--jit-log]");
+		System.out.println("       profiling: [--profile]"
+				+ " [--profile-stacks=FILE]");
+		System.out.println("       output options: [--flush=exit|size|line]"
+				+ " [--flush-size=N] [--out-file=FILE]");
+		System.out.println("       jlox compile [--compact-tokens]"
+				+ " [--optimize] script");
+		System.out.println("       jlox run script.jar");
+		System.out.println("       jlox batch [options] [--jobs=N]"
+				+ " [--output=DIR] (script | dir | @list)...");
+	}
+
+	private static void runPrompt(LoxEngine engine) throws IOException {
 		InputStreamReader input = new InputStreamReader(System.in);
 		BufferedReader reader = new BufferedReader(input);
 
 		for (;;) {
 			System.out.print("> ");
 			// reset error flag for new evaluation
-			hadError = false;
+			engine.resetErrors();
 			String line = reader.readLine().trim();
 			if (line.equals(":q") || line.equals("exit")) return;
-			run(line);
+			engine.run(line);
 		}
 	}
 
-	private static void runFile(String path) throws IOException {
+	private static void runFile(LoxEngine engine, String path)
+			throws IOException {
 		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
-		if (hadError)
-			System.exit(65);
-		if (hadRuntimeError)
-			System.exit(70);
+		engine.run(new String(bytes, Charset.defaultCharset()));
 	}
 
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-
-		// For now, just print the tokens.
-		// for (Token token : tokens) {
-		// System.out.println(token);
-		// }
-
-		Parser parser = new Parser(tokens);
-		List<Stmt> statements = parser.parse();
-
-		// Stop if there was a syntax error.
-		if (hadError)
-			return;
-
-		interpreter.interpret(statements);
-
-	}
-
-	static void error(int line, String message) {
-		report(line, "", message);
-	}
-
-	static private void report(int line, String where, String message) {
-		System.err.println("\n[line " + line + "] Error" + where + ": "
-				+ message);
-		hadError = true;
+	// The report goes to stderr, the stacks for flame graphs to a file.
+	private static void writeProfile(LoxEngine engine, boolean profile,
+			Path stacks) throws IOException {
+		if (profile) {
+			engine.writeProfile(System.err);
+		}
+		if (stacks != null) {
+			try (PrintStream out = new PrintStream(Files.newOutputStream(
+					stacks))) {
+				engine.writeCollapsedStacks(out);
+			}
+		}
 	}
 
-	static void error(Token token, String message) {
-		if (token.type == TokenType.EOF) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
+	// Writes the script compiled to a JVM class into a jar next to it.
+	private static void compileFile(LoxEngine engine, String path)
+			throws IOException {
+		byte[] bytes = Files.readAllBytes(Paths.get(path));
+		Path jar = engine.compile(Paths.get(path), new String(bytes,
+				Charset.defaultCharset()));
+		if (jar != null)
+			System.err.println("Wrote " + jar);
+		exit(engine);
 	}
 
-	static void runtimeError(RuntimeError error) {
-		System.err.println(error.getMessage() + "\n[line " + error.token.line
-				+ "]");
-		hadRuntimeError = true;
+	private static void exit(LoxEngine engine) {
+		if (engine.hadError())
+			System.exit(65);
+		if (engine.hadRuntimeError())
+			System.exit(70);
 	}
 
 }
@@ -0,0 +1,90 @@
+package com.tony.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/*
+ * A parsed and resolved script. The statement list and the symbol table it
+ * was scanned with are never modified after resolving, and every eval()
+ * gets its own Interpreter and globals, so one compiled script can be
+ * evaluated from several threads at once.
+ *
+ * Bindings map onto global variables: GLOBAL_SCOPE and then ENGINE_SCOPE
+ * entries are defined before the script runs, and afterwards every global is
+ * stored back into ENGINE_SCOPE. Bindings whose name the script never
+ * mentions cannot be read by it and are left out. Java numbers become Lox
+ * numbers (Double).
+ */
+public class LoxCompiledScript extends CompiledScript {
+	private final ScriptEngine engine;
+	private final List<Stmt> statements;
+	private final SymbolTable symbols;
+
+	LoxCompiledScript(ScriptEngine engine, List<Stmt> statements,
+			SymbolTable symbols) {
+		this.engine = engine;
+		this.statements = List.copyOf(statements);
+		this.symbols = symbols;
+	}
+
+	@Override
+	public Object eval(ScriptContext context) throws ScriptException {
+		Output out = new Output(context.getWriter());
+		ByteArrayOutputStream messages = new ByteArrayOutputStream();
+		ErrorReporter errors = new ErrorReporter(new PrintStream(messages, true,
+				StandardCharsets.UTF_8));
+		errors.setOutput(out);
+		Interpreter interpreter = new Interpreter(out, errors);
+
+		define(interpreter.globals, context.getBindings(
+				ScriptContext.GLOBAL_SCOPE));
+		define(interpreter.globals, context.getBindings(
+				ScriptContext.ENGINE_SCOPE));
+		interpreter.interpret(statements);
+		out.flush();
+
+		Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+		if (bindings != null) {
+			interpreter.globals.forEach((value, symbol) -> bindings.put(symbols
+					.name(symbol), Rope.flatten(value)));
+		}
+
+		if (errors.hadRuntimeError())
+			throw new ScriptException(messages.toString(StandardCharsets.UTF_8)
+					.trim());
+		return null;
+	}
+
+	@Override
+	public ScriptEngine getEngine() {
+		return engine;
+	}
+
+	private void define(Environment globals, Bindings bindings) {
+		if (bindings == null)
+			return;
+		for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+			int symbol = symbols.find(binding.getKey());
+			if (symbol >= 0) {
+				globals.define(symbol, toLox(binding.getValue()));
+			}
+		}
+	}
+
+	private static Object toLox(Object value) {
+		if (value instanceof Number && !(value instanceof Double))
+			return ((Number) value).doubleValue();
+		if (value instanceof Character)
+			return value.toString();
+		return value;
+	}
+}
@@ -0,0 +1,300 @@
+package com.tony.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * One independent Lox instance with its own global variables, symbol
+ * table, output stream and error state. Engines share no mutable state, so
+ * separate engines can run scripts concurrently on different threads. A
+ * single engine is not thread-safe.
+ *
+ * Global variables persist across run() calls, as in the REPL.
+ */
+public class LoxEngine {
+	public enum Backend {
+		INTERPRETER, SPECIALIZING, TRACING_JIT, CLOSURES, VM
+	}
+
+	private Output out;
+	private final PrintStream err;
+	private final ErrorReporter errors;
+	// Ids of the identifiers scanned by this engine; globals are keyed by
+	// them.
+	private final SymbolTable symbols = new SymbolTable();
+
+	private Backend backend = Backend.INTERPRETER;
+	private boolean optimize = false;
+	private boolean compactTokens = false;
+	private int jitThreshold = TracingInterpreter.DEFAULT_THRESHOLD;
+	private boolean jitLog = false;
+	private AstCache astCache = null;
+	private boolean profile = false;
+	private boolean fuse = false;
+	private boolean cacheStats = false;
+
+	// Created on first use.
+	private Interpreter interpreter;
+	private VM vm;
+	private ClosureCompiler closures;
+	private Fuser fuser;
+
+	public LoxEngine() {
+		this(System.out, System.err);
+	}
+
+	public LoxEngine(PrintStream out, PrintStream err) {
+		this(new Output(out), err);
+	}
+
+	public LoxEngine(Output out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+		this.errors = new ErrorReporter(err);
+		errors.setOutput(out);
+	}
+
+	// A fresh engine with the same options, writing to the given streams.
+	public LoxEngine withOutput(PrintStream out, PrintStream err) {
+		LoxEngine engine = new LoxEngine(out, err);
+		engine.backend = backend;
+		engine.optimize = optimize;
+		engine.compactTokens = compactTokens;
+		engine.jitThreshold = jitThreshold;
+		engine.jitLog = jitLog;
+		engine.astCache = astCache;
+		engine.profile = profile;
+		engine.fuse = fuse;
+		engine.cacheStats = cacheStats;
+		return engine;
+	}
+
+	// Options; set them before the first run.
+	// ////////////////////////////////////////////
+
+	// Replaces the output given to the constructor, for example to change
+	// where print statements go or how often they are flushed.
+	public void setOutput(Output out) {
+		this.out = out;
+		errors.setOutput(out);
+	}
+
+	public void setBackend(Backend backend) {
+		this.backend = backend;
+	}
+
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	public void setCompactTokens(boolean compactTokens) {
+		this.compactTokens = compactTokens;
+	}
+
+	// Tracing JIT back-edge threshold, and whether to log compiled loops.
+	public void setJit(int threshold, boolean log) {
+		this.jitThreshold = threshold;
+		this.jitLog = log;
+	}
+
+	// Keeps parsed trees in the directory, so unchanged scripts are not
+	// parsed again.
+	public void setAstCache(Path directory) {
+		this.astCache = new AstCache(directory);
+	}
+
+	// Runs scripts in a tree-walking interpreter that times every node,
+	// whatever the backend; see writeProfile().
+	public void setProfile(boolean profile) {
+		this.profile = profile;
+	}
+
+	// Replaces common shapes of code by superinstructions when running in
+	// the tree-walking interpreter, and reports how often each ran.
+	public void setFuse(boolean fuse) {
+		this.fuse = fuse;
+	}
+
+	// Reports hits and misses of the inline caches on global variables
+	// after each run, in the tree-walking and closure backends.
+	public void setCacheStats(boolean cacheStats) {
+		this.cacheStats = cacheStats;
+	}
+
+	// Errors:
+	// ////////////////////////////////////////////
+
+	public boolean hadError() {
+		return errors.hadError();
+	}
+
+	public boolean hadRuntimeError() {
+		return errors.hadRuntimeError();
+	}
+
+	public void resetErrors() {
+		errors.reset();
+	}
+
+	// Running:
+	// ////////////////////////////////////////////
+
+	// Output is flushed when the run ends.
+	public void run(String source) {
+		List<Stmt> statements = parse(source);
+		if (statements == null)
+			return;
+
+		try {
+			execute(statements);
+		} finally {
+			out.flush();
+		}
+		if (cacheStats && backend() != Backend.VM) {
+			Environment globals = backend() == Backend.CLOSURES
+					? closures.globals
+					: interpreter.globals;
+			err.println(globals.cacheReport());
+		}
+	}
+
+	private Backend backend() {
+		return profile ? Backend.INTERPRETER : backend;
+	}
+
+	private void execute(List<Stmt> statements) {
+		switch (backend()) {
+			case VM : {
+				Chunk chunk = new BytecodeCompiler(errors).compile(statements);
+				if (errors.hadError())
+					return;
+				if (vm == null) {
+					vm = new VM(out, errors);
+				}
+				vm.interpret(chunk);
+				break;
+			}
+			case CLOSURES :
+				if (closures == null) {
+					closures = new ClosureCompiler(out, errors, cacheStats);
+				}
+				closures.interpret(statements);
+				break;
+			default :
+				if (interpreter == null) {
+					interpreter = createInterpreter();
+				}
+				// Other interpreters need every node evaluated on its own.
+				if (fuse && !profile && backend == Backend.INTERPRETER) {
+					if (fuser == null) {
+						fuser = new Fuser();
+					}
+					interpreter.interpret(fuser.fuse(statements));
+					out.flush();
+					err.println(fuser.report());
+				} else {
+					interpreter.interpret(statements);
+				}
+		}
+	}
+
+	private Interpreter createInterpreter() {
+		if (profile)
+			return new ProfilingInterpreter(out, errors, cacheStats);
+
+		switch (backend) {
+			case SPECIALIZING :
+				return new SpecializingInterpreter(out, errors, cacheStats);
+			case TRACING_JIT :
+				return new TracingInterpreter(out, errors, cacheStats,
+						jitThreshold, jitLog ? err : null);
+			default :
+				return new Interpreter(out, errors, cacheStats);
+		}
+	}
+
+	// Compiles the script to a JVM class in a jar next to it. Returns the
+	// jar, or null if there were errors.
+	public Path compile(Path script, String source) throws IOException {
+		List<Stmt> statements = parse(source);
+		if (statements == null)
+			return null;
+		return ClassCompiler.compile(script, statements, errors);
+	}
+
+	// Runs a jar written by compile().
+	public void runClass(Path jar) throws IOException {
+		try {
+			ClassCompiler.run(jar, out, errors);
+		} finally {
+			out.flush();
+		}
+	}
+
+	// Profiles of all runs so far, if profiling: a text report by node and
+	// by line, and stacks in the collapsed format of flame graph tools.
+	public void writeProfile(PrintStream report) {
+		if (interpreter instanceof ProfilingInterpreter) {
+			((ProfilingInterpreter) interpreter).report(report);
+		}
+	}
+
+	public void writeCollapsedStacks(PrintStream stacks) {
+		if (interpreter instanceof ProfilingInterpreter) {
+			((ProfilingInterpreter) interpreter).writeCollapsedStacks(stacks);
+		}
+	}
+
+	// The table identifiers in trees from parse() are interned into.
+	SymbolTable symbols() {
+		return symbols;
+	}
+
+	// Scans, parses, optionally optimizes and resolves the source. Returns
+	// null if there was a syntax error.
+	List<Stmt> parse(String source) {
+		if (astCache != null) {
+			List<Stmt> cached = astCache.load(source, optimize, symbols);
+			if (cached != null) {
+				// The tree was optimized when it was stored.
+				if (optimize) {
+					err.println("[optimizer] cached");
+				}
+				return cached;
+			}
+		}
+
+		Scanner scanner = new Scanner(source, errors, symbols);
+
+		// The parser either pulls tokens from the scanner on demand, or reads
+		// them from a compact array-based buffer scanned up front.
+		Parser parser;
+		if (compactTokens) {
+			parser = new Parser(scanner.scanCompact(), errors);
+		} else {
+			parser = new Parser(scanner, errors);
+		}
+		List<Stmt> statements = parser.parse();
+
+		// Stop if there was a syntax error.
+		if (errors.hadError())
+			return null;
+
+		if (optimize) {
+			Optimizer optimizer = new Optimizer(symbols);
+			statements = optimizer.optimize(statements);
+			err.println(optimizer.report());
+		}
+
+		// Annotate variable references with their (depth, slot).
+		Resolver resolver = new Resolver();
+		resolver.resolve(statements);
+
+		if (astCache != null) {
+			astCache.store(source, optimize, statements);
+		}
+		return statements;
+	}
+}
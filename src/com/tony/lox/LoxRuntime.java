@@ -0,0 +1,178 @@
+package com.tony.lox;
+
+import java.io.PrintStream;
+
+/*
+ * Runtime support for classes generated by "jlox compile". Generated code
+ * lives outside this package, so everything it calls is public here. The
+ * operators throw the same RuntimeErrors (message and line) as the
+ * Interpreter, and an instance holds the global variables of one run.
+ */
+public final class LoxRuntime {
+	private final SymbolTable symbols = new SymbolTable();
+	private final SymbolMap globals = new SymbolMap();
+	private final Output out;
+
+	public LoxRuntime() {
+		this(new Output(System.out));
+	}
+
+	public LoxRuntime(PrintStream out) {
+		this(new Output(out));
+	}
+
+	public LoxRuntime(Output out) {
+		this.out = out;
+	}
+
+	// Runs a compiled script as a program: reports a runtime error the way
+	// the interpreter does and exits with the same status.
+	public static void main(LoxRuntime lox, Runnable script) {
+		ErrorReporter errors = new ErrorReporter(System.err);
+		errors.setOutput(lox.out);
+		boolean ok = execute(script, errors);
+		lox.out.flush();
+		if (!ok)
+			System.exit(70);
+	}
+
+	static boolean execute(Runnable script, ErrorReporter errors) {
+		try {
+			script.run();
+			return true;
+		} catch (RuntimeError error) {
+			errors.runtimeError(error);
+			return false;
+		}
+	}
+
+	// Globals:
+	// ////////////////////////////////////////////
+
+	// Id of a global's name; generated classes look them up once, when
+	// they are constructed.
+	public int symbol(String name) {
+		return symbols.intern(name);
+	}
+
+	public void define(int symbol, Object value) {
+		globals.put(symbol, value);
+	}
+
+	public Object get(int symbol, int line) {
+		int slot = globals.find(symbol);
+		if (slot < 0)
+			throw undefined(symbol, line);
+		return globals.valueAt(slot);
+	}
+
+	public Object set(int symbol, Object value, int line) {
+		int slot = globals.find(symbol);
+		if (slot < 0)
+			throw undefined(symbol, line);
+		globals.setAt(slot, value);
+		return value;
+	}
+
+	private RuntimeError undefined(int symbol, int line) {
+		return new RuntimeError(line, "Undefined variable '"
+				+ symbols.name(symbol) + "'.");
+	}
+
+	// Operators on values of unknown type:
+	// ////////////////////////////////////////////
+
+	public static Object add(Object left, Object right, int line) {
+		if (left instanceof Double && right instanceof Double)
+			return (double) left + (double) right;
+		if (Rope.isString(left) && Rope.isString(right))
+			return Rope.concat(left, right);
+		throw new RuntimeError(line,
+				"Operands must be two numbers or two strings.");
+	}
+
+	public static double subtract(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left - (double) right;
+	}
+
+	public static double multiply(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left * (double) right;
+	}
+
+	public static double divide(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left / (double) right;
+	}
+
+	public static boolean greater(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left > (double) right;
+	}
+
+	public static boolean greaterEqual(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left >= (double) right;
+	}
+
+	public static boolean less(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left < (double) right;
+	}
+
+	public static boolean lessEqual(Object left, Object right, int line) {
+		checkNumberOperands(left, right, line);
+		return (double) left <= (double) right;
+	}
+
+	public static double negate(Object right, int line) {
+		if (!(right instanceof Double))
+			throw new RuntimeError(line, "Operand must be a number.");
+		return -(double) right;
+	}
+
+	private static void checkNumberOperands(Object left, Object right,
+			int line) {
+		if (left instanceof Double && right instanceof Double)
+			return;
+		throw new RuntimeError(line, "Operands must be numbers.");
+	}
+
+	public static boolean isTruthy(Object object) {
+		return Interpreter.isTruthy(object);
+	}
+
+	public static boolean isEqual(Object left, Object right) {
+		return Interpreter.isEqual(left, right);
+	}
+
+	// Double.equals() semantics, which is what isEqual() uses on numbers.
+	public static boolean same(double left, double right) {
+		return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+	}
+
+	// Statements:
+	// ////////////////////////////////////////////
+
+	public void print(Object value) {
+		out.print(value);
+	}
+
+	// Expression statements whose value is unused.
+	public static void discard(Object value) {
+	}
+
+	public static void discard(double value) {
+	}
+
+	public static void discard(boolean value) {
+	}
+
+	// Hides a constant loop condition from javac, which would otherwise
+	// reject the code after "while (true)" or the body of "while (false)"
+	// as unreachable.
+	public static boolean test(boolean condition) {
+		return condition;
+	}
+}
@@ -0,0 +1,123 @@
+package com.tony.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/*
+ * JSR-223 engine for Lox. Scripts are parsed and resolved once into a
+ * LoxCompiledScript, and the engine keeps the most recently used ones in a
+ * bounded LRU cache keyed by source, so eval() of a repeated script skips
+ * the front end. Each evaluation runs in a fresh tree-walking Interpreter
+ * whose globals are loaded from, and written back to, the bindings.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine
+		implements
+			Compilable {
+	static final int DEFAULT_CACHE_SIZE = 256;
+
+	private final ScriptEngineFactory factory;
+	private final Map<String, LoxCompiledScript> cache;
+
+	public LoxScriptEngine() {
+		this(new LoxScriptEngineFactory());
+	}
+
+	public LoxScriptEngine(ScriptEngineFactory factory) {
+		this(factory, DEFAULT_CACHE_SIZE);
+	}
+
+	public LoxScriptEngine(ScriptEngineFactory factory, int cacheSize) {
+		this.factory = factory;
+		// Access order makes the eldest entry the least recently used.
+		this.cache = new LinkedHashMap<String, LoxCompiledScript>(16, 0.75f,
+				true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, LoxCompiledScript> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	@Override
+	public Object eval(String script, ScriptContext context)
+			throws ScriptException {
+		return compile(script).eval(context);
+	}
+
+	@Override
+	public Object eval(Reader reader, ScriptContext context)
+			throws ScriptException {
+		return eval(read(reader), context);
+	}
+
+	@Override
+	public LoxCompiledScript compile(String script) throws ScriptException {
+		synchronized (cache) {
+			LoxCompiledScript compiled = cache.get(script);
+			if (compiled != null)
+				return compiled;
+		}
+
+		// Parse outside the lock; two threads compiling the same new script
+		// just both do the work.
+		LoxCompiledScript compiled = parse(script);
+		synchronized (cache) {
+			cache.put(script, compiled);
+		}
+		return compiled;
+	}
+
+	@Override
+	public LoxCompiledScript compile(Reader script) throws ScriptException {
+		return compile(read(script));
+	}
+
+	@Override
+	public Bindings createBindings() {
+		return new SimpleBindings();
+	}
+
+	@Override
+	public ScriptEngineFactory getFactory() {
+		return factory;
+	}
+
+	private LoxCompiledScript parse(String source) throws ScriptException {
+		ByteArrayOutputStream messages = new ByteArrayOutputStream();
+		LoxEngine engine = new LoxEngine(new PrintStream(OutputStream
+				.nullOutputStream()), new PrintStream(messages, true,
+				StandardCharsets.UTF_8));
+		List<Stmt> statements = engine.parse(source);
+		if (statements == null)
+			throw new ScriptException(messages.toString(StandardCharsets.UTF_8)
+					.trim());
+		return new LoxCompiledScript(this, statements, engine.symbols());
+	}
+
+	private static String read(Reader reader) throws ScriptException {
+		StringWriter source = new StringWriter();
+		try {
+			reader.transferTo(source);
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		}
+		return source.toString();
+	}
+}
@@ -0,0 +1,90 @@
+package com.tony.lox;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Registered in META-INF/services, so ScriptEngineManager finds it by name,
+// extension or MIME type.
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+	private static final String VERSION = "1.0";
+
+	@Override
+	public String getEngineName() {
+		return "jlox";
+	}
+
+	@Override
+	public String getEngineVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return List.of("lox");
+	}
+
+	@Override
+	public List<String> getMimeTypes() {
+		return List.of("application/x-lox", "text/x-lox");
+	}
+
+	@Override
+	public List<String> getNames() {
+		return List.of("lox", "Lox", "jlox");
+	}
+
+	@Override
+	public String getLanguageName() {
+		return "Lox";
+	}
+
+	@Override
+	public String getLanguageVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public Object getParameter(String key) {
+		switch (key) {
+			case ScriptEngine.ENGINE :
+				return getEngineName();
+			case ScriptEngine.ENGINE_VERSION :
+				return getEngineVersion();
+			case ScriptEngine.NAME :
+				return getNames().get(0);
+			case ScriptEngine.LANGUAGE :
+				return getLanguageName();
+			case ScriptEngine.LANGUAGE_VERSION :
+				return getLanguageVersion();
+			default :
+				return null;
+		}
+	}
+
+	@Override
+	public String getMethodCallSyntax(String obj, String m, String... args) {
+		return obj + "." + m + "(" + String.join(", ", args) + ")";
+	}
+
+	// Lox strings have no escapes, so toDisplay must not contain a quote.
+	@Override
+	public String getOutputStatement(String toDisplay) {
+		return "print \"" + toDisplay + "\";";
+	}
+
+	@Override
+	public String getProgram(String... statements) {
+		StringBuilder program = new StringBuilder();
+		for (String statement : statements) {
+			program.append(statement).append(";\n");
+		}
+		return program.toString();
+	}
+
+	@Override
+	public ScriptEngine getScriptEngine() {
+		return new LoxScriptEngine(this);
+	}
+}
@@ -0,0 +1,41 @@
+package com.tony.lox;
+
+/*
+ * Instruction set of the bytecode VM. Opcodes are plain byte constants so
+ * the VM dispatch loop can switch on the raw code array. Operands, where
+ * present, are unsigned 16 bit values stored big-endian after the opcode.
+ */
+final class OpCode {
+	static final byte CONSTANT = 0; // index
+	static final byte NIL = 1;
+	static final byte TRUE = 2;
+	static final byte FALSE = 3;
+	static final byte POP = 4;
+	static final byte RESERVE = 5; // count: push that many nils
+	static final byte POPN = 6; // count
+	static final byte GET_LOCAL = 7; // stack slot
+	static final byte SET_LOCAL = 8; // stack slot
+	static final byte GET_GLOBAL = 9; // name constant
+	static final byte DEFINE_GLOBAL = 10; // name constant
+	static final byte SET_GLOBAL = 11; // name constant
+	static final byte EQUAL = 12;
+	static final byte NOT_EQUAL = 13;
+	static final byte GREATER = 14;
+	static final byte GREATER_EQUAL = 15;
+	static final byte LESS = 16;
+	static final byte LESS_EQUAL = 17;
+	static final byte ADD = 18;
+	static final byte SUBTRACT = 19;
+	static final byte MULTIPLY = 20;
+	static final byte DIVIDE = 21;
+	static final byte NOT = 22;
+	static final byte NEGATE = 23;
+	static final byte PRINT = 24;
+	static final byte JUMP = 25; // forward offset
+	static final byte JUMP_IF_FALSE = 26; // forward offset, keeps condition
+	static final byte LOOP = 27; // backward offset
+	static final byte RETURN = 28;
+
+	private OpCode() {
+	}
+}
@@ -0,0 +1,590 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Optional pass over the parsed AST, run before the Resolver:
+ * - collapses groupings and folds operators whose operands are literals,
+ * - prunes if/while/for statements whose condition is a constant,
+ * - drops expression statements and blocks without any effect,
+ * - hoists loop-invariant subexpressions out of while and for conditions.
+ *
+ * Only subexpressions the condition evaluates unconditionally are hoisted,
+ * and only if they contain no assignment and no variable assigned anywhere
+ * in the loop. Their value is computed once, right before the loop starts.
+ * That is before anything to their left in the condition, so hoisting stops
+ * at the first subexpression that could fail or has an effect: a runtime
+ * error must come from the same operand as without the optimizer.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	// the table the tree was scanned with, for the temporaries' names
+	private final SymbolTable symbols;
+	private int nodesBefore = 0;
+	private int nodesAfter = 0;
+	// Nodes dropped or replaced, and nodes added (hoisted temporaries and
+	// empty loop bodies), so before - removed + added = after.
+	private int removed = 0;
+	private int added = 0;
+	private int hoisted = 0;
+
+	// Names of the variables declared so far in each enclosing scope, the
+	// globals first. Reading one of them cannot fail.
+	private final List<Set<String>> scopes = new ArrayList<>();
+	// While hoisting: whether everything the condition evaluated so far can
+	// neither fail nor have an effect.
+	private boolean pure;
+
+	Optimizer(SymbolTable symbols) {
+		this.symbols = symbols;
+		scopes.add(new HashSet<>());
+	}
+
+	List<Stmt> optimize(List<Stmt> statements) {
+		nodesBefore += Scan.of(statements).nodes;
+		List<Stmt> result = optimizeAll(statements);
+		nodesAfter += Scan.of(result).nodes;
+		return result;
+	}
+
+	int removedNodes() {
+		return removed;
+	}
+
+	String report() {
+		return "[optimizer] " + nodesBefore + " -> " + nodesAfter
+				+ " nodes (removed " + removed + ", added " + added
+				+ "), hoisted " + hoisted + " loop-invariant expressions";
+	}
+
+	private List<Stmt> optimizeAll(List<Stmt> statements) {
+		List<Stmt> result = new ArrayList<>(statements.size());
+		for (Stmt statement : statements) {
+			Stmt optimized = optimize(statement);
+			if (optimized != null) {
+				result.add(optimized);
+			}
+		}
+		return result;
+	}
+
+	// Returns null if the statement can be dropped.
+	private Stmt optimize(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private Stmt optimizeBody(Stmt stmt) {
+		Stmt optimized = optimize(stmt);
+		if (optimized == null) {
+			added++;
+			return new Stmt.Block(new ArrayList<Stmt>());
+		}
+		return optimized;
+	}
+
+	private Expr optimize(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private static int nodes(Stmt stmt) {
+		return stmt == null ? 0 : Scan.of(Arrays.asList(stmt)).nodes;
+	}
+
+	private static int nodes(Expr expr) {
+		return expr == null ? 0 : Scan.of(expr).nodes;
+	}
+
+	private void beginScope() {
+		scopes.add(new HashSet<>());
+	}
+
+	private void endScope() {
+		scopes.remove(scopes.size() - 1);
+	}
+
+	private boolean isDeclared(String name) {
+		for (Set<String> scope : scopes) {
+			if (scope.contains(name))
+				return true;
+		}
+		return false;
+	}
+
+	// Statements:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		beginScope();
+		List<Stmt> statements = optimizeAll(stmt.statements);
+		endScope();
+		if (statements.isEmpty()) {
+			removed++;
+			return null;
+		}
+		return new Stmt.Block(statements);
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = optimize(stmt.expression);
+		if (expression instanceof Expr.Literal) {
+			removed += 2;
+			return null;
+		}
+		return new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		return new Stmt.Print(optimize(stmt.expression));
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (condition instanceof Expr.Literal) {
+			// The if and its condition, and the branch not taken.
+			removed += 2;
+			if (Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+				removed += nodes(stmt.elseBranch);
+				return optimize(stmt.thenBranch);
+			}
+			removed += nodes(stmt.thenBranch);
+			if (stmt.elseBranch != null)
+				return optimize(stmt.elseBranch);
+			return null;
+		}
+
+		Stmt elseBranch = null;
+		if (stmt.elseBranch != null) {
+			elseBranch = optimize(stmt.elseBranch);
+		}
+		return new Stmt.If(condition, optimizeBody(stmt.thenBranch),
+				elseBranch);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		Expr initializer = null;
+		if (stmt.initializer != null) {
+			initializer = optimize(stmt.initializer);
+		}
+		scopes.get(scopes.size() - 1).add(stmt.name.lexeme);
+		return new Stmt.Var(stmt.name, initializer);
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (condition instanceof Expr.Literal
+				&& !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+			removed += 2 + nodes(stmt.body);
+			return null;
+		}
+
+		Stmt body = optimizeBody(stmt.body);
+
+		Set<String> assigned = new HashSet<>();
+		assigned.addAll(Scan.of(condition).assigned);
+		assigned.addAll(Scan.of(Arrays.asList(body)).assigned);
+
+		List<Stmt> temporaries = new ArrayList<>();
+		condition = hoist(condition, assigned, temporaries);
+		if (temporaries.isEmpty())
+			return new Stmt.While(condition, body);
+
+		temporaries.add(new Stmt.While(condition, body));
+		added++;
+		return new Stmt.Block(temporaries);
+	}
+
+	@Override
+	public Stmt visitForStmt(Stmt.For stmt) {
+		// The counter is declared in a scope of its own.
+		beginScope();
+		try {
+			return optimizeFor(stmt);
+		} finally {
+			endScope();
+		}
+	}
+
+	private Stmt optimizeFor(Stmt.For stmt) {
+		Stmt initializer = null;
+		if (stmt.initializer != null) {
+			initializer = optimize(stmt.initializer);
+		}
+		Expr condition = optimize(stmt.condition);
+		if (condition instanceof Expr.Literal
+				&& !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+			removed += 2 + nodes(stmt.increment) + nodes(stmt.body);
+			// The counter stays out of the enclosing scope.
+			if (initializer instanceof Stmt.Var) {
+				added++;
+				return new Stmt.Block(Arrays.asList(initializer));
+			}
+			return initializer;
+		}
+
+		Expr increment = null;
+		if (stmt.increment != null) {
+			increment = optimize(stmt.increment);
+			if (increment instanceof Expr.Literal) {
+				removed++;
+				increment = null;
+			}
+		}
+		Stmt body = optimizeBody(stmt.body);
+
+		// Temporaries are computed before the initializer runs.
+		if (!isInert(initializer))
+			return new Stmt.For(initializer, condition, increment, body);
+
+		Set<String> assigned = new HashSet<>();
+		// The counter may shadow an outer variable of the same name.
+		if (initializer != null) {
+			assigned.add(((Stmt.Var) initializer).name.lexeme);
+		}
+		assigned.addAll(Scan.of(condition).assigned);
+		assigned.addAll(Scan.of(Arrays.asList(body)).assigned);
+		if (increment != null) {
+			assigned.addAll(Scan.of(increment).assigned);
+		}
+
+		List<Stmt> temporaries = new ArrayList<>();
+		condition = hoist(condition, assigned, temporaries);
+		Stmt loop = new Stmt.For(initializer, condition, increment, body);
+		if (temporaries.isEmpty())
+			return loop;
+
+		temporaries.add(loop);
+		added++;
+		return new Stmt.Block(temporaries);
+	}
+
+	// Whether a for initializer can neither fail nor assign anything.
+	private static boolean isInert(Stmt initializer) {
+		if (initializer == null)
+			return true;
+		if (!(initializer instanceof Stmt.Var))
+			return false;
+		Expr value = ((Stmt.Var) initializer).initializer;
+		return value == null || value instanceof Expr.Literal;
+	}
+
+	// Replaces invariant subexpressions of a loop condition by temporaries
+	// that are declared (and evaluated) in front of the loop.
+	private Expr hoist(Expr expr, Set<String> assigned,
+			List<Stmt> temporaries) {
+		pure = true;
+		return hoistInOrder(expr, assigned, temporaries);
+	}
+
+	// Visits the condition in evaluation order, hoisting while everything
+	// evaluated before is pure.
+	private Expr hoistInOrder(Expr expr, Set<String> assigned,
+			List<Stmt> temporaries) {
+		if (pure && (expr instanceof Expr.Binary || expr instanceof Expr.Unary)
+				&& isInvariant(expr, assigned)) {
+			// '$' cannot appear in a Lox identifier, so this never clashes.
+			String lexeme = "$invariant" + hoisted++;
+			Token name = new Token(TokenType.IDENTIFIER, lexeme, null,
+					lineOf(expr), symbols.intern(lexeme));
+			temporaries.add(new Stmt.Var(name, expr));
+			// The variable reads the value; reading it cannot fail.
+			scopes.get(scopes.size() - 1).add(name.lexeme);
+			added += 2;
+			return new Expr.Variable(name);
+		}
+
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			Expr left = hoistInOrder(binary.left, assigned, temporaries);
+			Expr right = hoistInOrder(binary.right, assigned, temporaries);
+			pure &= isEquality(binary.operator.type);
+			if (left != binary.left || right != binary.right)
+				return new Expr.Binary(left, binary.operator, right);
+		} else if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary) expr;
+			Expr right = hoistInOrder(unary.right, assigned, temporaries);
+			pure &= unary.operator.type == TokenType.BANG;
+			if (right != unary.right)
+				return new Expr.Unary(unary.operator, right);
+		} else if (expr instanceof Expr.Logical) {
+			// The right operand is conditionally evaluated; leave it alone.
+			Expr.Logical logical = (Expr.Logical) expr;
+			Expr left = hoistInOrder(logical.left, assigned, temporaries);
+			pure &= isPure(logical.right);
+			if (left != logical.left)
+				return new Expr.Logical(left, logical.operator, logical.right);
+		} else if (expr instanceof Expr.Assign) {
+			Expr.Assign assign = (Expr.Assign) expr;
+			Expr value = hoistInOrder(assign.value, assigned, temporaries);
+			pure = false;
+			if (value != assign.value)
+				return new Expr.Assign(assign.name, value);
+		} else {
+			pure &= isPure(expr);
+		}
+		return expr;
+	}
+
+	// Whether evaluating the expression can neither fail nor have an effect.
+	private boolean isPure(Expr expr) {
+		if (expr instanceof Expr.Literal)
+			return true;
+		if (expr instanceof Expr.Variable)
+			return isDeclared(((Expr.Variable) expr).name.lexeme);
+		if (expr instanceof Expr.Binary)
+			return isEquality(((Expr.Binary) expr).operator.type)
+					&& isPure(((Expr.Binary) expr).left)
+					&& isPure(((Expr.Binary) expr).right);
+		if (expr instanceof Expr.Logical)
+			return isPure(((Expr.Logical) expr).left)
+					&& isPure(((Expr.Logical) expr).right);
+		if (expr instanceof Expr.Unary)
+			return ((Expr.Unary) expr).operator.type == TokenType.BANG
+					&& isPure(((Expr.Unary) expr).right);
+		return false;
+	}
+
+	// == and != compare values of any type.
+	private static boolean isEquality(TokenType type) {
+		return type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL;
+	}
+
+	private boolean isInvariant(Expr expr, Set<String> assigned) {
+		if (expr instanceof Expr.Literal)
+			return true;
+		if (expr instanceof Expr.Variable)
+			return !assigned.contains(((Expr.Variable) expr).name.lexeme);
+		if (expr instanceof Expr.Binary)
+			return isInvariant(((Expr.Binary) expr).left, assigned)
+					&& isInvariant(((Expr.Binary) expr).right, assigned);
+		if (expr instanceof Expr.Logical)
+			return isInvariant(((Expr.Logical) expr).left, assigned)
+					&& isInvariant(((Expr.Logical) expr).right, assigned);
+		if (expr instanceof Expr.Unary)
+			return isInvariant(((Expr.Unary) expr).right, assigned);
+		return false;
+	}
+
+	private static int lineOf(Expr expr) {
+		if (expr instanceof Expr.Binary)
+			return ((Expr.Binary) expr).operator.line;
+		return ((Expr.Unary) expr).operator.line;
+	}
+
+	// Expressions:
+	// ////////////////////////////////////////////
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		return new Expr.Assign(expr.name, optimize(expr.value));
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+
+		if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+			try {
+				// Literal strings are always Strings, never ropes.
+				Expr.Literal folded = new Expr.Literal(Rope.flatten(
+						Interpreter.applyBinary(expr.operator,
+								((Expr.Literal) left).value,
+								((Expr.Literal) right).value)));
+				removed += 2;
+				return folded;
+			} catch (RuntimeError error) {
+				// Leave it to fail at runtime.
+			}
+		}
+		return new Expr.Binary(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		removed++;
+		return optimize(expr.expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+
+		if (left instanceof Expr.Literal) {
+			boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+			Expr result = truthy == (expr.operator.type == TokenType.OR)
+					? left
+					: right;
+			removed += 1 + nodes(result == left ? right : left);
+			return result;
+		}
+		return new Expr.Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = optimize(expr.right);
+
+		if (right instanceof Expr.Literal) {
+			try {
+				Expr.Literal folded = new Expr.Literal(Interpreter.applyUnary(
+						expr.operator, ((Expr.Literal) right).value));
+				removed++;
+				return folded;
+			} catch (RuntimeError error) {
+				// Leave it to fail at runtime.
+			}
+		}
+		return new Expr.Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return expr;
+	}
+
+	// Counts nodes and collects the names assigned in a tree.
+	private static class Scan implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+		int nodes = 0;
+		final Set<String> assigned = new HashSet<>();
+
+		static Scan of(List<Stmt> statements) {
+			Scan scan = new Scan();
+			for (Stmt statement : statements) {
+				statement.accept(scan);
+			}
+			return scan;
+		}
+
+		static Scan of(Expr expr) {
+			Scan scan = new Scan();
+			expr.accept(scan);
+			return scan;
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+			nodes++;
+			for (Stmt statement : stmt.statements) {
+				statement.accept(this);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+			nodes++;
+			stmt.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+			nodes++;
+			stmt.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+			nodes++;
+			stmt.condition.accept(this);
+			stmt.thenBranch.accept(this);
+			if (stmt.elseBranch != null)
+				stmt.elseBranch.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+			nodes++;
+			if (stmt.initializer != null)
+				stmt.initializer.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(Stmt.While stmt) {
+			nodes++;
+			stmt.condition.accept(this);
+			stmt.body.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitForStmt(Stmt.For stmt) {
+			nodes++;
+			if (stmt.initializer != null)
+				stmt.initializer.accept(this);
+			stmt.condition.accept(this);
+			if (stmt.increment != null)
+				stmt.increment.accept(this);
+			stmt.body.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			nodes++;
+			assigned.add(expr.name.lexeme);
+			expr.value.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			nodes++;
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			nodes++;
+			expr.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			nodes++;
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+			nodes++;
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			nodes++;
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			nodes++;
+			return null;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.tony.lox;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/*
+ * Buffered sink for what print statements write, shared by all backends.
+ * Values are formatted straight into a char buffer, integral numbers
+ * without going through a String, and the buffer is encoded to a stream or
+ * channel (or handed to a Writer) when the flush policy asks for it.
+ *
+ * Like PrintStream, it does not throw on I/O errors; see checkError().
+ * Not thread-safe: each engine has its own.
+ */
+public class Output implements Flushable, Closeable {
+	public enum FlushPolicy {
+		// Only when the buffer is full and at the end of each run.
+		EXIT,
+		// Also whenever the flush size has been buffered.
+		SIZE,
+		// After every print, for interactive use.
+		LINE
+	}
+
+	static final int CAPACITY = 64 * 1024;
+	static final int DEFAULT_FLUSH_SIZE = 8 * 1024;
+	private static final String NEWLINE = System.lineSeparator();
+	// Longest long, with sign.
+	private static final int MAX_DIGITS = 20;
+
+	private final char[] buffer = new char[CAPACITY];
+	private int size = 0;
+	private FlushPolicy policy = FlushPolicy.EXIT;
+	private int flushSize = DEFAULT_FLUSH_SIZE;
+	private boolean error = false;
+
+	// Where the buffer goes: one of stream, channel or writer.
+	private final OutputStream stream;
+	private final WritableByteChannel channel;
+	private final Writer writer;
+	private final CharsetEncoder encoder;
+	private final ByteBuffer bytes;
+
+	public Output(OutputStream stream) {
+		this(stream, Charset.defaultCharset());
+	}
+
+	public Output(OutputStream stream, Charset charset) {
+		this(stream, null, null, charset);
+	}
+
+	// Writes go straight to the channel, for example a FileChannel, with no
+	// stream buffering in between.
+	public Output(WritableByteChannel channel, Charset charset) {
+		this(null, channel, null, charset);
+	}
+
+	public Output(Writer writer) {
+		this(null, null, writer, null);
+	}
+
+	private Output(OutputStream stream, WritableByteChannel channel,
+			Writer writer, Charset charset) {
+		this.stream = stream;
+		this.channel = channel;
+		this.writer = writer;
+		if (charset != null) {
+			this.encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.bytes = ByteBuffer.allocate(CAPACITY);
+		} else {
+			this.encoder = null;
+			this.bytes = null;
+		}
+	}
+
+	public void setFlushPolicy(FlushPolicy policy) {
+		this.policy = policy;
+	}
+
+	// For FlushPolicy.SIZE, in characters; at most the buffer capacity.
+	public void setFlushSize(int flushSize) {
+		this.flushSize = Math.min(flushSize, CAPACITY);
+	}
+
+	// Writes a value and a line break, the way "print" does.
+	public void print(Object value) {
+		if (value instanceof Double) {
+			append((double) value);
+		} else {
+			append(Interpreter.stringify(value));
+		}
+		append(NEWLINE);
+
+		if (policy == FlushPolicy.LINE
+				|| (policy == FlushPolicy.SIZE && size >= flushSize)) {
+			flush();
+		}
+	}
+
+	@Override
+	public void flush() {
+		drain();
+		try {
+			if (stream != null) {
+				stream.flush();
+			} else if (writer != null) {
+				writer.flush();
+			}
+		} catch (IOException e) {
+			error = true;
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+		try {
+			if (stream != null) {
+				stream.close();
+			} else if (channel != null) {
+				channel.close();
+			} else {
+				writer.close();
+			}
+		} catch (IOException e) {
+			error = true;
+		}
+	}
+
+	// True if writing failed at some point.
+	public boolean checkError() {
+		return error;
+	}
+
+	// Formatting:
+	// ////////////////////////////////////////////
+
+	private void append(String s) {
+		int length = s.length();
+		int start = 0;
+		if (length > buffer.length - size) {
+			drain();
+			// Longer than the whole buffer: copy it through in pieces, never
+			// splitting a surrogate pair between two of them.
+			while (length - start > buffer.length) {
+				int end = start + buffer.length;
+				if (Character.isHighSurrogate(s.charAt(end - 1))) {
+					end--;
+				}
+				s.getChars(start, end, buffer, 0);
+				size = end - start;
+				drain();
+				start = end;
+			}
+		}
+		s.getChars(start, length, buffer, size);
+		size += length - start;
+	}
+
+	// Same text as Interpreter.stringify(). Integral numbers below 10^7
+	// (where Double.toString switches to exponents) are written as longs;
+	// -0 and everything else goes through stringify().
+	private void append(double number) {
+		long integer = (long) number;
+		if (integer != number || integer <= -10_000_000
+				|| integer >= 10_000_000
+				|| (integer == 0 && Double.doubleToRawLongBits(number) != 0)) {
+			append(Interpreter.stringify(number));
+			return;
+		}
+
+		if (buffer.length - size < MAX_DIGITS) {
+			drain();
+		}
+		if (integer < 0) {
+			buffer[size++] = '-';
+			integer = -integer;
+		}
+		int end = size + digits(integer);
+		int position = end;
+		do {
+			buffer[--position] = (char) ('0' + integer % 10);
+			integer /= 10;
+		} while (integer != 0);
+		size = end;
+	}
+
+	private static int digits(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+	// Writing:
+	// ////////////////////////////////////////////
+
+	// Empties the buffer into the target.
+	private void drain() {
+		if (size == 0)
+			return;
+		try {
+			if (writer != null) {
+				writer.write(buffer, 0, size);
+			} else {
+				encode();
+			}
+		} catch (IOException e) {
+			error = true;
+		}
+		size = 0;
+	}
+
+	private void encode() throws IOException {
+		CharBuffer chars = CharBuffer.wrap(buffer, 0, size);
+		encoder.reset();
+		for (;;) {
+			CoderResult result = encoder.encode(chars, bytes, true);
+			if (result.isUnderflow())
+				break;
+			writeBytes();
+		}
+		while (encoder.flush(bytes).isOverflow()) {
+			writeBytes();
+		}
+		writeBytes();
+	}
+
+	private void writeBytes() throws IOException {
+		bytes.flip();
+		if (stream != null) {
+			stream.write(bytes.array(), 0, bytes.limit());
+		} else {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+		bytes.clear();
+	}
+}
@@ -3,8 +3,10 @@ package com.tony.lox;
 import static com.tony.lox.TokenType.*;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+
 /*
  * 
  program        → declaration* EOF ;
@@ -27,15 +29,81 @@ import java.util.List;
  multiplication → unary ( ( "/" | "*" ) unary )* ;
  unary          → ( "!" | "-" ) unary | primary ;
  primary        → NUMBER | STRING | "false" | "true" | "nil" | "(" expression ")" | IDENTIFIER ;
+
+ Statements are parsed by recursive descent. Expressions are parsed by
+ precedence climbing (a Pratt parser): the levels from assignment to
+ unary are rows of a table indexed by token type, not nested methods.
  */
 public class Parser {
 	private static class ParseError extends RuntimeException {
+		final Token token;
+
+		ParseError(Token token, String message) {
+			super(message, null, false, false);
+			this.token = token;
+		}
+	}
+
+	// Binding powers of the operators, from loosest to tightest.
+	private static final int ASSIGNMENT = 1;
+	private static final int LOGIC_OR = 2;
+	private static final int LOGIC_AND = 3;
+	private static final int EQUALITY = 4;
+	private static final int COMPARISON = 5;
+	private static final int TERM = 6;
+	private static final int FACTOR = 7;
+	private static final int UNARY = 8;
+
+	// Precedence of each token type as a binary operator, by ordinal; 0 for
+	// tokens that end an expression.
+	private static final byte[] INFIX = new byte[TokenType.values().length];
+
+	static {
+		infix(ASSIGNMENT, EQUAL);
+		infix(LOGIC_OR, OR);
+		infix(LOGIC_AND, AND);
+		infix(EQUALITY, BANG_EQUAL, EQUAL_EQUAL);
+		infix(COMPARISON, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+		infix(TERM, MINUS, PLUS);
+		infix(FACTOR, SLASH, STAR);
 	}
-	private final List<Token> tokens;
-	private int current = 0;
+
+	private static void infix(int precedence, TokenType... types) {
+		for (TokenType type : types) {
+			INFIX[type.ordinal()] = (byte) precedence;
+		}
+	}
+
+	// Tokens that start a declaration, where error recovery resumes.
+	private static final Set<TokenType> DECLARATION_START = EnumSet.of(
+			CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN);
+
+	private final TokenStream tokens;
+	private final ErrorReporter errors;
+	// Syntax errors are reported when parsing ends, after any errors the
+	// scanner finds while the parser pulls tokens, so that messages come in
+	// the same order as when the source is scanned up front.
+	private final List<ParseError> syntaxErrors = new ArrayList<>();
 
 	Parser(List<Token> tokens) {
+		this(tokens.iterator()::next);
+	}
+
+	Parser(TokenSource source) {
+		this(new TokenWindow(source));
+	}
+
+	Parser(TokenStream tokens) {
+		this(tokens, new ErrorReporter(System.err));
+	}
+
+	Parser(TokenSource source, ErrorReporter errors) {
+		this(new TokenWindow(source), errors);
+	}
+
+	Parser(TokenStream tokens, ErrorReporter errors) {
 		this.tokens = tokens;
+		this.errors = errors;
 	}
 
 	List<Stmt> parse() {
@@ -43,15 +111,17 @@ public class Parser {
 		while (!isAtEnd()) {
 			statements.add(declaration());
 		}
+		for (ParseError error : syntaxErrors) {
+			errors.error(error.token, error.getMessage());
+		}
+		syntaxErrors.clear();
 		return statements;
 	}
 
-	private boolean match(TokenType... types) {
-		for (TokenType type : types) {
-			if (check(type)) {
-				advance();
-				return true;
-			}
+	private boolean match(TokenType type) {
+		if (check(type)) {
+			advance();
+			return true;
 		}
 
 		return false;
@@ -60,57 +130,50 @@ public class Parser {
 	private boolean check(TokenType tokenType) {
 		if (isAtEnd())
 			return false;
-		return peek().type == tokenType;
+		return tokens.peekType() == tokenType;
 	}
 
-	private Token advance() {
+	private void advance() {
 		if (!isAtEnd())
-			current++;
-		return previous();
+			tokens.advance();
 	}
 
 	private boolean isAtEnd() {
-		return peek().type == EOF;
+		return tokens.peekType() == EOF;
 	}
 
 	private Token peek() {
-		return tokens.get(current);
+		return tokens.peek();
 	}
 
 	private Token previous() {
-		return tokens.get(current - 1);
+		return tokens.previous();
 	}
 
-	private Token consume(TokenType type, String message) {
-		if (check(type))
-			return advance();
+	private void consume(TokenType type, String message) {
+		if (check(type)) {
+			advance();
+			return;
+		}
 
 		throw error(peek(), message);
 	}
 
 	private ParseError error(Token token, String message) {
-		Lox.error(token, message);
-		return new ParseError();
+		ParseError error = new ParseError(token, message);
+		syntaxErrors.add(error);
+		return error;
 	}
 
 	private void synchronize() {
 		advance();
 
 		while (!isAtEnd()) {
-			if (previous().type == SEMICOLON)
+			if (tokens.previousType() == SEMICOLON)
 				return;
 
-			switch (peek().type) {
-				case CLASS :
-				case FUN :
-				case VAR :
-				case FOR :
-				case IF :
-				case WHILE :
-				case PRINT :
-				case RETURN :
-					return;
-			}
+			if (DECLARATION_START.contains(tokens.peekType()))
+				return;
 
 			advance();
 		}
@@ -172,22 +235,10 @@ public class Parser {
 
 		Stmt body = statement();
 
-		// 'desugaring'
-		if (increment != null) {
-			body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(
-					increment)));
-		}
-
 		if (condition == null)
 			condition = new Expr.Literal(true);
 
-		body = new Stmt.While(condition, body);
-
-		if (initializer != null) {
-			body = new Stmt.Block(Arrays.asList(initializer, body));
-		}
-
-		return body;
+		return new Stmt.For(initializer, condition, increment, body);
 	}
 
 	private Stmt whileStatement() {
@@ -224,7 +275,8 @@ public class Parser {
 	}
 
 	private Stmt varDeclaration() {
-		Token name = consume(IDENTIFIER, "Expected variable name.");
+		consume(IDENTIFIER, "Expected variable name.");
+		Token name = previous();
 
 		Expr initializer = null;
 		if (match(EQUAL)) {
@@ -248,132 +300,83 @@ public class Parser {
 	}
 
 	private Expr expression() {
-		return assignment();
+		return expression(ASSIGNMENT);
 	}
 
-	private Expr assignment() {
-		Expr expr = or();
-
-		if (match(EQUAL)) {
-			Token equals = previous();
-			Expr value = assignment();
-
-			if (expr instanceof Expr.Variable) {
-				Token name = ((Expr.Variable) expr).name;
-				return new Expr.Assign(name, value);
-			}
-
-			error(equals, "Invalid assignment target.");
-		}
-
-		return expr;
-	}
-
-	private Expr or() {
-		Expr expr = and();
-
-		while (match(OR)) {
-			Token operator = previous();
-			Expr right = and();
-			expr = new Expr.Logical(expr, operator, right);
-		}
-
-		return expr;
-	}
-
-	private Expr and() {
-		Expr expr = equality();
+	// Expressions (Pratt parser):
+	// ////////////////////////////////////////////
 
-		while (match(AND)) {
+	// Parses a prefix expression, then every binary operator binding at
+	// least as tightly as precedence. Left associative operators parse
+	// their right operand one level higher, assignment at its own level.
+	private Expr expression(int precedence) {
+		Expr expr = prefix();
+
+		for (;;) {
+			TokenType type = tokens.peekType();
+			int infix = INFIX[type.ordinal()];
+			if (infix < precedence)
+				return expr;
+			advance();
 			Token operator = previous();
-			Expr right = equality();
-			expr = new Expr.Logical(expr, operator, right);
-		}
 
-		return expr;
-	}
-
-	private Expr equality() {
-		Expr expr = comparison();
-
-		while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-			Token operator = previous();
-			Expr right = comparison();
-			expr = new Expr.Binary(expr, operator, right);
-		}
+			if (type == EQUAL)
+				return assignment(expr, operator);
 
-		return expr;
-	}
-
-	private Expr comparison() {
-		Expr expr = addition();
-
-		while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-			Token operator = previous();
-			Expr right = addition();
-			expr = new Expr.Binary(expr, operator, right);
+			Expr right = expression(infix + 1);
+			if (type == AND || type == OR) {
+				expr = new Expr.Logical(expr, operator, right);
+			} else {
+				expr = new Expr.Binary(expr, operator, right);
+			}
 		}
-
-		return expr;
 	}
 
-	private Expr addition() {
-		Expr expr = multiplication();
+	private Expr assignment(Expr target, Token equals) {
+		Expr value = expression(ASSIGNMENT);
 
-		while (match(MINUS, PLUS)) {
-			Token operator = previous();
-			Expr right = multiplication();
-			expr = new Expr.Binary(expr, operator, right);
+		if (target instanceof Expr.Variable) {
+			Token name = ((Expr.Variable) target).name;
+			return new Expr.Assign(name, value);
 		}
 
-		return expr;
+		error(equals, "Invalid assignment target.");
+		return target;
 	}
 
-	private Expr multiplication() {
-		Expr expr = unary();
-
-		while (match(SLASH, STAR)) {
-			Token operator = previous();
-			Expr right = unary();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-
-		return expr;
-	}
-
-	private Expr unary() {
-		if (match(BANG, MINUS)) {
-			Token operator = previous();
-			Expr right = unary();
-			return new Expr.Unary(operator, right);
-		}
-
-		return primary();
-	}
-
-	private Expr primary() {
-		if (match(FALSE))
-			return new Expr.Literal(false);
-		if (match(TRUE))
-			return new Expr.Literal(true);
-		if (match(NIL))
-			return new Expr.Literal(null);
-
-		if (match(NUMBER, STRING)) {
-			return new Expr.Literal(previous().literal);
-		}
-
-		if (match(LEFT_PAREN)) {
-			Expr expr = expression();
-			consume(RIGHT_PAREN, "Expected ')' after expression.");
-			return new Expr.Grouping(expr);
-		}
-
-		if (match(IDENTIFIER)) {
-			return new Expr.Variable(previous());
+	private Expr prefix() {
+		switch (tokens.peekType()) {
+			case FALSE :
+				advance();
+				return new Expr.Literal(false);
+			case TRUE :
+				advance();
+				return new Expr.Literal(true);
+			case NIL :
+				advance();
+				return new Expr.Literal(null);
+			case NUMBER :
+			case STRING :
+				advance();
+				return new Expr.Literal(tokens.previousLiteral());
+			case LEFT_PAREN : {
+				advance();
+				Expr expr = expression(ASSIGNMENT);
+				consume(RIGHT_PAREN, "Expected ')' after expression.");
+				return new Expr.Grouping(expr);
+			}
+			case IDENTIFIER :
+				advance();
+				return new Expr.Variable(previous());
+			case BANG :
+			case MINUS : {
+				advance();
+				Token operator = previous();
+				Expr right = expression(UNARY);
+				return new Expr.Unary(operator, right);
+			}
+			default :
+				throw error(peek(), "Expected expression.");
 		}
-
-		throw error(peek(), "Expected expression.");
 	}
-
 }
@@ -0,0 +1,285 @@
+package com.tony.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.tony.lox.Expr.Assign;
+import com.tony.lox.Expr.Binary;
+import com.tony.lox.Expr.Grouping;
+import com.tony.lox.Expr.Literal;
+import com.tony.lox.Expr.Logical;
+import com.tony.lox.Expr.Unary;
+import com.tony.lox.Expr.Variable;
+import com.tony.lox.Stmt.Block;
+import com.tony.lox.Stmt.Expression;
+import com.tony.lox.Stmt.For;
+import com.tony.lox.Stmt.If;
+import com.tony.lox.Stmt.Print;
+import com.tony.lox.Stmt.Var;
+import com.tony.lox.Stmt.While;
+
+/*
+ * Interpreter that times every statement and expression it executes. Each
+ * node gets a Frame in a tree of the nodes active at the time, recording
+ * how often it ran, its total time and its self time (total minus the time
+ * of its children). Reports are per node and per source line, plus the
+ * collapsed-stack format read by flame graph tools (flamegraph.pl,
+ * speedscope, ...).
+ *
+ * Only this subclass pays for the bookkeeping; the plain Interpreter is
+ * unchanged. Times include the cost of reading the clock, which inflates
+ * small leaf nodes such as literals.
+ */
+class ProfilingInterpreter extends Interpreter {
+	private static final int TOP_NODES = 40;
+
+	private static final class Frame {
+		final Frame parent;
+		final String name;
+		final int line;
+		final Map<Object, Frame> children = new IdentityHashMap<>();
+		long count = 0;
+		long total = 0;
+		long self = 0;
+		// While active: when it started and the time spent in children.
+		long start;
+		long childTime;
+
+		Frame(Frame parent, String name, int line) {
+			this.parent = parent;
+			this.name = name;
+			this.line = line;
+		}
+	}
+
+	private final Frame root = new Frame(null, "script", -1);
+	private Frame current = root;
+	private final Describer describer = new Describer();
+
+	ProfilingInterpreter(Output out, ErrorReporter errors,
+			boolean cacheStats) {
+		super(out, errors, cacheStats);
+	}
+
+	@Override
+	void execute(Stmt stmt) {
+		Frame frame = enter(stmt);
+		try {
+			super.execute(stmt);
+		} finally {
+			exit(frame);
+		}
+	}
+
+	@Override
+	Object evaluate(Expr expr) {
+		Frame frame = enter(expr);
+		try {
+			return super.evaluate(expr);
+		} finally {
+			exit(frame);
+		}
+	}
+
+	private Frame enter(Object node) {
+		Frame frame = current.children.get(node);
+		if (frame == null) {
+			frame = describer.frame(current, node);
+			current.children.put(node, frame);
+		}
+		current = frame;
+		frame.count++;
+		frame.childTime = 0;
+		frame.start = System.nanoTime();
+		return frame;
+	}
+
+	private void exit(Frame frame) {
+		long elapsed = System.nanoTime() - frame.start;
+		frame.total += elapsed;
+		frame.self += elapsed - frame.childTime;
+		current = frame.parent;
+		current.childTime += elapsed;
+	}
+
+	// Reports:
+	// ////////////////////////////////////////////
+
+	// The most expensive nodes by self time, then every line.
+	void report(PrintStream out) {
+		List<Frame> frames = new ArrayList<>();
+		collect(root, frames);
+		long total = root.children.values().stream()
+				.mapToLong(frame -> frame.total).sum();
+
+		out.printf("Profile: %.3f ms in %d nodes%n", millis(total), frames
+				.size());
+		out.printf("%n%12s %12s %12s %6s %6s  %s%n", "count", "total ms",
+				"self ms", "self%", "line", "node");
+		frames.sort(Comparator.comparingLong((Frame frame) -> frame.self)
+				.reversed());
+		for (Frame frame : frames.subList(0, Math.min(TOP_NODES, frames
+				.size()))) {
+			out.printf("%12d %12.3f %12.3f %5.1f%% %6s  %s%n", frame.count,
+					millis(frame.total), millis(frame.self), percent(
+							frame.self, total), line(frame.line), frame.name);
+		}
+
+		// A line's total counts the time of the outermost nodes on it only,
+		// so that nested nodes on the same line are not counted twice.
+		Map<Integer, long[]> lines = new TreeMap<>();
+		for (Frame frame : frames) {
+			long[] line = lines.computeIfAbsent(frame.line,
+					key -> new long[3]);
+			if (frame.parent.line != frame.line) {
+				line[0] += frame.count;
+				line[1] += frame.total;
+			}
+			line[2] += frame.self;
+		}
+		out.printf("%n%12s %12s %12s %6s %6s%n", "count", "total ms",
+				"self ms", "self%", "line");
+		lines.forEach((line, times) -> out.printf(
+				"%12d %12.3f %12.3f %5.1f%% %6s%n", times[0],
+				millis(times[1]), millis(times[2]), percent(times[2], total),
+				line(line)));
+	}
+
+	// One line per stack, "script;frame;frame self-microseconds".
+	void writeCollapsedStacks(PrintStream out) {
+		writeCollapsed(root, root.name, out);
+	}
+
+	private void writeCollapsed(Frame frame, String stack, PrintStream out) {
+		long micros = frame.self / 1000;
+		if (micros > 0) {
+			out.println(stack + " " + micros);
+		}
+		for (Frame child : frame.children.values()) {
+			writeCollapsed(child, stack + ";" + child.name + " (line "
+					+ line(child.line) + ")", out);
+		}
+	}
+
+	private static void collect(Frame frame, List<Frame> frames) {
+		for (Frame child : frame.children.values()) {
+			frames.add(child);
+			collect(child, frames);
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0 ? 0 : 100.0 * part / total;
+	}
+
+	private static String line(int line) {
+		return line < 0 ? "?" : Integer.toString(line);
+	}
+
+	// Names nodes for the reports. Nodes without a token of their own, such
+	// as literals, are on their parent's line.
+	private static final class Describer
+			implements
+				Expr.Visitor<Frame>,
+				Stmt.Visitor<Frame> {
+		private Frame parent;
+
+		Frame frame(Frame parent, Object node) {
+			this.parent = parent;
+			if (node instanceof Stmt)
+				return ((Stmt) node).accept(this);
+			return ((Expr) node).accept(this);
+		}
+
+		private Frame frame(String name, int line) {
+			return new Frame(parent, name, line < 0 ? parent.line : line);
+		}
+
+		private Frame frame(String name, Token token) {
+			return frame(name, token.line);
+		}
+
+		private int lineOf(Expr expr) {
+			return expr.accept(this).line;
+		}
+
+		@Override
+		public Frame visitAssignExpr(Assign expr) {
+			return frame("assign " + expr.name.lexeme, expr.name);
+		}
+
+		@Override
+		public Frame visitBinaryExpr(Binary expr) {
+			return frame("binary " + expr.operator.lexeme, expr.operator);
+		}
+
+		@Override
+		public Frame visitGroupingExpr(Grouping expr) {
+			return frame("grouping", lineOf(expr.expression));
+		}
+
+		@Override
+		public Frame visitLiteralExpr(Literal expr) {
+			return frame("literal", -1);
+		}
+
+		@Override
+		public Frame visitLogicalExpr(Logical expr) {
+			return frame("logical " + expr.operator.lexeme, expr.operator);
+		}
+
+		@Override
+		public Frame visitUnaryExpr(Unary expr) {
+			return frame("unary " + expr.operator.lexeme, expr.operator);
+		}
+
+		@Override
+		public Frame visitVariableExpr(Variable expr) {
+			return frame("variable " + expr.name.lexeme, expr.name);
+		}
+
+		@Override
+		public Frame visitBlockStmt(Block stmt) {
+			return frame("block", -1);
+		}
+
+		@Override
+		public Frame visitExpressionStmt(Expression stmt) {
+			return frame("expression", lineOf(stmt.expression));
+		}
+
+		@Override
+		public Frame visitPrintStmt(Print stmt) {
+			return frame("print", lineOf(stmt.expression));
+		}
+
+		@Override
+		public Frame visitIfStmt(If stmt) {
+			return frame("if", lineOf(stmt.condition));
+		}
+
+		@Override
+		public Frame visitVarStmt(Var stmt) {
+			return frame("var " + stmt.name.lexeme, stmt.name);
+		}
+
+		@Override
+		public Frame visitWhileStmt(While stmt) {
+			return frame("while", lineOf(stmt.condition));
+		}
+
+		@Override
+		public Frame visitForStmt(For stmt) {
+			return frame("for", lineOf(stmt.condition));
+		}
+	}
+}
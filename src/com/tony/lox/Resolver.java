@@ -0,0 +1,240 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Static pass run between Parser and Interpreter. Every local variable gets
+ * a slot in the array of its declaring block, and every reference to it is
+ * annotated with (depth, slot) so the Interpreter never looks locals up by
+ * name. References that are not found in any enclosing block keep depth -1
+ * and are treated as globals.
+ *
+ * For loops of the shape 'for (var i = ...; i < limit; i = i + step)' whose
+ * counter is assigned nowhere else are marked as counted, which lets the
+ * backends keep the counter in a primitive.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	// innermost scope last; maps a name to its slot in that scope
+	private final List<Map<String, Integer>> scopes = new ArrayList<>();
+	// the slots of each scope that are assigned to, same order as scopes
+	private final List<BitSet> assigned = new ArrayList<>();
+
+	void resolve(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			resolve(statement);
+		}
+	}
+
+	private void resolve(Stmt stmt) {
+		stmt.accept(this);
+	}
+
+	private void resolve(Expr expr) {
+		expr.accept(this);
+	}
+
+	private void beginScope() {
+		scopes.add(new HashMap<String, Integer>());
+		assigned.add(new BitSet());
+	}
+
+	private int endScope() {
+		assigned.remove(assigned.size() - 1);
+		return scopes.remove(scopes.size() - 1).size();
+	}
+
+	private int declare(Token name) {
+		if (scopes.isEmpty())
+			return -1;
+
+		// Redeclaring a name in the same block reuses its slot, just like
+		// the old name-keyed scopes overwrote the previous value.
+		Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+		Integer slot = scope.get(name.lexeme);
+		if (slot == null) {
+			slot = scope.size();
+			scope.put(name.lexeme, slot);
+		}
+		return slot;
+	}
+
+	// Index into scopes of the innermost block declaring the name, or -1 if
+	// it is not a local and has to be looked up as a global.
+	private int scopeOf(Token name) {
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			if (scopes.get(i).containsKey(name.lexeme))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		beginScope();
+		resolve(stmt.statements);
+		stmt.slots = endScope();
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		// The initializer is resolved before the name is declared so that
+		// 'var a = a;' still refers to an outer 'a'.
+		if (stmt.initializer != null) {
+			resolve(stmt.initializer);
+		}
+		stmt.slot = declare(stmt.name);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		resolve(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		resolve(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		resolve(stmt.condition);
+		resolve(stmt.thenBranch);
+		if (stmt.elseBranch != null)
+			resolve(stmt.elseBranch);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		resolve(stmt.condition);
+		resolve(stmt.body);
+		return null;
+	}
+
+	// The initializer's variable belongs to a scope around the loop, which
+	// only exists if there is such a variable.
+	@Override
+	public Void visitForStmt(Stmt.For stmt) {
+		boolean scoped = stmt.initializer instanceof Stmt.Var;
+		if (scoped) {
+			beginScope();
+		}
+		if (stmt.initializer != null) {
+			resolve(stmt.initializer);
+		}
+		resolve(stmt.condition);
+		resolve(stmt.body);
+		boolean counterAssigned = scoped
+				&& assigned.get(assigned.size() - 1).get(
+						((Stmt.Var) stmt.initializer).slot);
+		if (stmt.increment != null) {
+			resolve(stmt.increment);
+		}
+		if (scoped) {
+			stmt.slots = endScope();
+		}
+		stmt.counted = scoped && !counterAssigned && isCounted(stmt);
+		return null;
+	}
+
+	private static boolean isCounted(Stmt.For stmt) {
+		Stmt.Var counter = (Stmt.Var) stmt.initializer;
+		if (counter.initializer == null
+				|| !(stmt.condition instanceof Expr.Binary)
+				|| !(stmt.increment instanceof Expr.Assign))
+			return false;
+
+		Expr.Binary condition = (Expr.Binary) stmt.condition;
+		switch (condition.operator.type) {
+			case GREATER :
+			case GREATER_EQUAL :
+			case LESS :
+			case LESS_EQUAL :
+				break;
+			default :
+				return false;
+		}
+		if (!isCounter(condition.left, counter))
+			return false;
+
+		Expr.Assign increment = (Expr.Assign) stmt.increment;
+		if (increment.depth != 0 || increment.slot != counter.slot
+				|| !(increment.value instanceof Expr.Binary))
+			return false;
+		Expr.Binary step = (Expr.Binary) increment.value;
+		TokenType type = step.operator.type;
+		return (type == TokenType.PLUS || type == TokenType.MINUS)
+				&& isCounter(step.left, counter)
+				&& step.right instanceof Expr.Literal
+				&& ((Expr.Literal) step.right).value instanceof Double;
+	}
+
+	private static boolean isCounter(Expr expr, Stmt.Var counter) {
+		if (!(expr instanceof Expr.Variable))
+			return false;
+		Expr.Variable variable = (Expr.Variable) expr;
+		return variable.depth == 0 && variable.slot == counter.slot;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		resolve(expr.value);
+
+		int scope = scopeOf(expr.name);
+		if (scope >= 0) {
+			expr.depth = scopes.size() - 1 - scope;
+			expr.slot = scopes.get(scope).get(expr.name.lexeme);
+			assigned.get(scope).set(expr.slot);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		resolve(expr.left);
+		resolve(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		resolve(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Expr.Logical expr) {
+		resolve(expr.left);
+		resolve(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		resolve(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		int scope = scopeOf(expr.name);
+		if (scope >= 0) {
+			expr.depth = scopes.size() - 1 - scope;
+			expr.slot = scopes.get(scope).get(expr.name.lexeme);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,108 @@
+package com.tony.lox;
+
+/*
+ * Lox string built by concatenation. A rope is a prefix, of fixed length,
+ * of a StringBuilder that only ever grows, so appending to the rope at the
+ * end of its builder appends in place and shares the builder: building a
+ * string in a loop is linear instead of quadratic. The String is only made
+ * (and then kept) when it is needed, to print, compare or hash the value.
+ *
+ * Lox string values are either String or Rope: test them with isString()
+ * and join them with concat().
+ */
+final class Rope implements CharSequence {
+	// Shorter results stay Strings; copying them is cheap.
+	private static final int MIN_LENGTH = 64;
+
+	private final StringBuilder builder;
+	private final int length;
+	private String flat = null;
+
+	private Rope(StringBuilder builder, int length) {
+		this.builder = builder;
+		this.length = length;
+	}
+
+	static boolean isString(Object value) {
+		return value instanceof String || value instanceof Rope;
+	}
+
+	// Both operands must be strings.
+	static Object concat(Object left, Object right) {
+		CharSequence a = (CharSequence) left;
+		CharSequence b = (CharSequence) right;
+		int length = a.length() + b.length();
+		if (length < MIN_LENGTH)
+			return ((String) a).concat((String) b);
+
+		if (a instanceof Rope) {
+			Rope rope = (Rope) a;
+			// Nothing was appended to this rope yet, so its builder can be.
+			if (rope.builder.length() == rope.length) {
+				append(rope.builder, b);
+				return new Rope(rope.builder, length);
+			}
+		}
+		StringBuilder builder = new StringBuilder(length * 2);
+		append(builder, a);
+		append(builder, b);
+		return new Rope(builder, length);
+	}
+
+	private static void append(StringBuilder builder, CharSequence s) {
+		if (s instanceof Rope) {
+			Rope rope = (Rope) s;
+			builder.append(rope.builder, 0, rope.length);
+		} else {
+			builder.append((String) s);
+		}
+	}
+
+	// Strings are equal by content, whether ropes or not.
+	static boolean equal(Object a, Object b) {
+		if (!isString(a) || !isString(b))
+			return false;
+		return ((CharSequence) a).length() == ((CharSequence) b).length()
+				&& a.toString().equals(b.toString());
+	}
+
+	// The value with ropes made into Strings, for code outside Lox.
+	static Object flatten(Object value) {
+		return value instanceof Rope ? value.toString() : value;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= length)
+			throw new IndexOutOfBoundsException(index);
+		return builder.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		if (flat == null) {
+			flat = builder.substring(0, length);
+		}
+		return flat;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Rope && equal(this, other);
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+}
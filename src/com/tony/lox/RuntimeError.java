@@ -2,9 +2,18 @@ package com.tony.lox;
 
 public class RuntimeError extends RuntimeException {
 	final Token token;
+	final int line;
 
 	RuntimeError(Token token, String message) {
 		super(message);
 		this.token = token;
+		this.line = token.line;
+	}
+
+	// Used by backends that only keep a line table instead of tokens.
+	RuntimeError(int line, String message) {
+		super(message);
+		this.token = null;
+		this.line = line;
 	}
 }
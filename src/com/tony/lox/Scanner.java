@@ -3,52 +3,71 @@ package com.tony.lox;
 import static com.tony.lox.TokenType.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-public class Scanner {
+public class Scanner implements TokenSource {
 	private final String source;
-	private final List<Token> tokens = new ArrayList<>();
+	private final ErrorReporter errors;
+	private final SymbolTable symbols;
+	// the token produced by the last scanToken() call, if any
+	private Token token = null;
+	// when set, tokens are appended here instead of creating Token objects
+	private TokenBuffer buffer = null;
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
 
-	private static final Map<String, TokenType> keywords;
-
-	static {
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("class", CLASS);
-		keywords.put("else", ELSE);
-		keywords.put("false", FALSE);
-		keywords.put("for", FOR);
-		keywords.put("fun", FUN);
-		keywords.put("if", IF);
-		keywords.put("nil", NIL);
-		keywords.put("or", OR);
-		keywords.put("print", PRINT);
-		keywords.put("return", RETURN);
-		keywords.put("super", SUPER);
-		keywords.put("this", THIS);
-		keywords.put("true", TRUE);
-		keywords.put("var", VAR);
-		keywords.put("while", WHILE);
+	Scanner(String source) {
+		this(source, new ErrorReporter(System.err));
 	}
 
-	Scanner(String source) {
+	Scanner(String source, ErrorReporter errors) {
+		this(source, errors, new SymbolTable());
+	}
+
+	// Interns identifiers into the given table, usually its engine's.
+	Scanner(String source, ErrorReporter errors, SymbolTable symbols) {
 		this.source = source;
+		this.errors = errors;
+		this.symbols = symbols;
 	}
 
 	List<Token> scanTokens() {
+		List<Token> tokens = new ArrayList<>();
+		Token token;
+		do {
+			token = nextToken();
+			tokens.add(token);
+		} while (token.type != EOF);
+		return tokens;
+	}
+
+	TokenBuffer scanCompact() {
+		buffer = new TokenBuffer(source, symbols);
 		while (!isAtEnd()) {
 			// We are at the beginning of the next lexeme.
 			start = current;
 			scanToken();
 		}
 
-		tokens.add(new Token(EOF, "", null, line));
-		return tokens;
+		buffer.add(EOF, current, 0, line, -1);
+		return buffer;
+	}
+
+	@Override
+	public Token nextToken() {
+		while (!isAtEnd()) {
+			// We are at the beginning of the next lexeme.
+			start = current;
+			scanToken();
+			if (token != null) {
+				Token next = token;
+				token = null;
+				return next;
+			}
+		}
+
+		return new Token(EOF, "", null, line, -1);
 	}
 
 	private boolean isAtEnd() {
@@ -130,7 +149,7 @@ public class Scanner {
 					identifier();
 				} else {
 					// TODO: coalesce all invalid characters?
-					Lox.error(line, "Unexpected character.");
+					errors.error(line, "Unexpected character.");
 				}
 				break;
 		}
@@ -144,14 +163,88 @@ public class Scanner {
 			advance();
 
 		// See if the identifier is a reserved word.
-		String text = source.substring(start, current);
-
-		TokenType type = keywords.get(text);
-		if (type == null)
-			type = IDENTIFIER;
+		TokenType type = keyword(source, start, current);
+		if (type == IDENTIFIER) {
+			addIdentifier();
+			return;
+		}
 		addToken(type);
 	}
 
+	// Matches source[start, end) against the reserved words by switching on
+	// its first characters, so no String is created just for the lookup.
+	// Returns IDENTIFIER if it is not a keyword.
+	static TokenType keyword(String source, int start, int end) {
+		switch (source.charAt(start)) {
+			case 'a' :
+				return rest(source, start, end, 1, "nd", AND);
+			case 'c' :
+				return rest(source, start, end, 1, "lass", CLASS);
+			case 'e' :
+				return rest(source, start, end, 1, "lse", ELSE);
+			case 'f' :
+				if (end - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'a' :
+							return rest(source, start, end, 2, "lse", FALSE);
+						case 'o' :
+							return rest(source, start, end, 2, "r", FOR);
+						case 'u' :
+							return rest(source, start, end, 2, "n", FUN);
+					}
+				}
+				break;
+			case 'i' :
+				return rest(source, start, end, 1, "f", IF);
+			case 'n' :
+				return rest(source, start, end, 1, "il", NIL);
+			case 'o' :
+				return rest(source, start, end, 1, "r", OR);
+			case 'p' :
+				return rest(source, start, end, 1, "rint", PRINT);
+			case 'r' :
+				return rest(source, start, end, 1, "eturn", RETURN);
+			case 's' :
+				return rest(source, start, end, 1, "uper", SUPER);
+			case 't' :
+				if (end - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'h' :
+							return rest(source, start, end, 2, "is", THIS);
+						case 'r' :
+							return rest(source, start, end, 2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v' :
+				return rest(source, start, end, 1, "ar", VAR);
+			case 'w' :
+				return rest(source, start, end, 1, "hile", WHILE);
+		}
+		return IDENTIFIER;
+	}
+
+	private static TokenType rest(String source, int start, int end,
+			int offset, String rest, TokenType type) {
+		if (end - start == offset + rest.length()
+				&& source.regionMatches(start + offset, rest, 0, rest.length()))
+			return type;
+		return IDENTIFIER;
+	}
+
+	private void addIdentifier() {
+		int symbol = symbols.intern(source, start, current);
+		if (buffer != null) {
+			buffer.add(IDENTIFIER, start, current - start, line, symbol);
+			return;
+		}
+
+		// The interned name doubles as the lexeme, so repeated identifiers
+		// share one String.
+		token = new Token(IDENTIFIER, symbols.name(symbol), null, line,
+				symbol);
+	}
+
 	private boolean isAlpha(char c) {
 		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
 	}
@@ -173,7 +266,7 @@ public class Scanner {
 				advance();
 		}
 
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		addToken(NUMBER);
 	}
 
 	private void string() {
@@ -185,17 +278,15 @@ public class Scanner {
 
 		// Unterminated string.
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string.");
+			errors.error(line, "Unterminated string.");
 			return;
 		}
 
 		// The closing ".
 		advance();
 
-		// Trim the surrounding quotes.
-		String value = source.substring(start + 1, current - 1);
 		// TODO: escape sequences
-		addToken(STRING, value);
+		addToken(STRING);
 	}
 
 	private char advance() {
@@ -203,12 +294,27 @@ public class Scanner {
 	}
 
 	private void addToken(TokenType type) {
-		addToken(type, null);
-	}
+		if (buffer != null) {
+			buffer.add(type, start, current - start, line, -1);
+			return;
+		}
 
-	private void addToken(TokenType type, Object literal) {
 		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		token = new Token(type, text, literal(type, source, start, current),
+				line, -1);
+	}
+
+	// The literal value of the token source[start, end), if it has one.
+	static Object literal(TokenType type, String source, int start, int end) {
+		switch (type) {
+			case NUMBER :
+				return Double.parseDouble(source.substring(start, end));
+			case STRING :
+				// Trim the surrounding quotes.
+				return source.substring(start + 1, end - 1);
+			default :
+				return null;
+		}
 	}
 
 	private boolean match(char expected) {
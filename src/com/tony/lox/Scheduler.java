@@ -0,0 +1,245 @@
+package com.tony.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Runs many scripts on a fixed pool of "carriers" threads. Scripts are
+ * compiled for the VM, whose state is on the heap, and run in slices of
+ * "slice" loop iterations: at the end of a slice a script pauses at the loop
+ * back edge and goes to the back of the queue, so time is shared
+ * round-robin and no thread is tied to a script. Code outside loops runs
+ * once, so loop iterations bound the work of a slice.
+ *
+ * A script that runs past its budget of loop iterations, or is cancelled,
+ * stops at the end of its slice; a queued one is cancelled at once.
+ */
+public class Scheduler implements AutoCloseable {
+	public static final int DEFAULT_SLICE = 10_000;
+
+	public enum Status {
+		PENDING, OK, SYNTAX_ERROR, RUNTIME_ERROR, BUDGET_EXCEEDED, CANCELLED,
+		FAILED
+	}
+
+	private final int slice;
+	private final ExecutorService carriers;
+
+	// Guarded by this.
+	private final Set<Task> live = new HashSet<>();
+	private boolean closed = false;
+
+	public Scheduler(int carriers) {
+		this(carriers, DEFAULT_SLICE);
+	}
+
+	public Scheduler(int carriers, int slice) {
+		this.slice = slice;
+		AtomicInteger ids = new AtomicInteger();
+		this.carriers = Executors.newFixedThreadPool(carriers, runnable -> {
+			Thread thread = new Thread(runnable, "lox-carrier-" + ids
+					.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public Task submit(String source, PrintStream out, PrintStream err) {
+		return submit(source, out, err, Long.MAX_VALUE);
+	}
+
+	// Budget is the number of loop iterations the script may execute.
+	public Task submit(String source, PrintStream out, PrintStream err,
+			long budget) {
+		Task task = new Task(source, out, err, budget);
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("Scheduler is closed.");
+			live.add(task);
+			task.queued = true;
+			carriers.execute(task::step);
+		}
+		return task;
+	}
+
+	// Rejects further scripts, cancels every script that has not finished
+	// and lets the carriers exit once the running slices end.
+	@Override
+	public void close() {
+		List<Task> tasks;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			tasks = new ArrayList<>(live);
+		}
+		for (Task task : tasks) {
+			task.cancel();
+		}
+		carriers.shutdown();
+	}
+
+	private synchronized void finished(Task task) {
+		live.remove(task);
+	}
+
+	// Tasks:
+	// ////////////////////////////////////////////
+
+	public final class Task {
+		private final String source;
+		private final Output out;
+		private final PrintStream err;
+		private final long budget;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Status status = Status.PENDING;
+		private volatile Throwable failure = null;
+		private volatile long executed = 0;
+
+		// Guarded by this. A task is either queued on the carriers, running
+		// a slice, or finished.
+		private boolean queued = false;
+		private boolean cancelled = false;
+
+		// Owned by the carrier running the current slice.
+		private ErrorReporter errors;
+		private VM vm;
+		private VM.Execution execution;
+
+		private Task(String source, PrintStream out, PrintStream err,
+				long budget) {
+			this.source = source;
+			this.out = new Output(out);
+			this.err = err;
+			this.budget = budget;
+		}
+
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				// A running slice notices when it ends.
+				if (queued) {
+					queued = false;
+					stop(Status.CANCELLED, "Script cancelled.");
+				}
+			}
+		}
+
+		public Status await() throws InterruptedException {
+			done.await();
+			return status;
+		}
+
+		public Status status() {
+			return status;
+		}
+
+		// What a FAILED script threw.
+		public Throwable failure() {
+			return failure;
+		}
+
+		// Loop iterations executed so far.
+		public long executed() {
+			return executed;
+		}
+
+		// Runs one slice on a carrier.
+		private void step() {
+			synchronized (this) {
+				// Cancelled while queued.
+				if (!queued)
+					return;
+				queued = false;
+			}
+
+			Status result = Status.PENDING;
+			try {
+				if (execution == null) {
+					result = start();
+				}
+				if (result == Status.PENDING) {
+					result = resume();
+				}
+			} catch (RuntimeException | Error e) {
+				failure = e;
+				synchronized (this) {
+					stop(Status.FAILED, "Script failed: " + e);
+				}
+				return;
+			}
+
+			synchronized (this) {
+				if (result != Status.PENDING) {
+					finish(result);
+				} else if (cancelled) {
+					stop(Status.CANCELLED, "Script cancelled.");
+				} else if (executed > budget) {
+					stop(Status.BUDGET_EXCEEDED, "Script exceeded its"
+							+ " budget of " + budget + " loop iterations.");
+				} else {
+					// Still under the lock, so close() cannot shut the
+					// carriers down before the task is queued again.
+					queued = true;
+					carriers.execute(this::step);
+				}
+			}
+		}
+
+		// Parses and compiles the script; PENDING if it is ready to run.
+		private Status start() {
+			ErrorReporter errors = new ErrorReporter(err);
+			errors.setOutput(out);
+			List<Stmt> statements = new LoxEngine(out, err).parse(source);
+			if (statements == null)
+				return Status.SYNTAX_ERROR;
+			Chunk chunk = new BytecodeCompiler(errors).compile(statements);
+			if (errors.hadError())
+				return Status.SYNTAX_ERROR;
+
+			vm = new VM(out, errors);
+			execution = new VM.Execution(chunk);
+			this.errors = errors;
+			return Status.PENDING;
+		}
+
+		private Status resume() {
+			// Pausing one back edge past the budget lets a script that uses
+			// exactly its budget test its loop condition and finish.
+			long limit = execution.backEdges + slice;
+			if (budget < limit) {
+				limit = budget + 1;
+			}
+			boolean finished = vm.resume(execution, limit);
+			executed = execution.backEdges;
+			if (!finished)
+				return Status.PENDING;
+			return errors.hadRuntimeError() ? Status.RUNTIME_ERROR
+					: Status.OK;
+		}
+
+		private void stop(Status status, String message) {
+			out.flush();
+			err.println(message);
+			finish(status);
+		}
+
+		private void finish(Status status) {
+			out.flush();
+			errors = null;
+			vm = null;
+			execution = null;
+			this.status = status;
+			finished(this);
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.tony.lox;
+
+
+import com.tony.lox.Expr.Binary;
+import com.tony.lox.Expr.Grouping;
+import com.tony.lox.Expr.Unary;
+
+/*
+ * Interpreter mode in which Binary and Unary nodes specialize themselves on
+ * the operand types seen at their first evaluation. Number-specialized nodes
+ * pass primitive doubles between each other, so a nested arithmetic
+ * expression only boxes its final result. When a specialized node sees an
+ * unexpected type it falls back (deoptimizes) to the generic path for good.
+ */
+class SpecializingInterpreter extends Interpreter {
+	static final int UNINITIALIZED = 0;
+	static final int NUMBER = 1;
+	static final int STRING = 2;
+	static final int GENERIC = 3;
+
+	SpecializingInterpreter(Output out, ErrorReporter errors,
+			boolean cacheStats) {
+		super(out, errors, cacheStats);
+	}
+
+	// Thrown when a number-specialized node sees another value. Carries the
+	// already computed value so that nothing is evaluated twice.
+	private static class UnexpectedType extends Exception {
+		final Object result;
+
+		UnexpectedType(Object result) {
+			super(null, null, false, false);
+			this.result = result;
+		}
+	}
+
+	@Override
+	public Object visitBinaryExpr(Binary expr) {
+		switch (expr.specialization) {
+			case UNINITIALIZED : {
+				Object left = evaluate(expr.left);
+				Object right = evaluate(expr.right);
+				expr.specialization = specialize(expr, left, right);
+				return applyBinary(expr.operator, left, right);
+			}
+			case NUMBER :
+				return numberBinary(expr);
+			case STRING :
+				return stringBinary(expr);
+			default :
+				return super.visitBinaryExpr(expr);
+		}
+	}
+
+	@Override
+	public Object visitUnaryExpr(Unary expr) {
+		switch (expr.specialization) {
+			case UNINITIALIZED : {
+				Object right = evaluate(expr.right);
+				expr.specialization = expr.operator.type == TokenType.MINUS
+						&& right instanceof Double ? NUMBER : GENERIC;
+				return applyUnary(expr.operator, right);
+			}
+			case NUMBER :
+				try {
+					return numberNegate(expr);
+				} catch (UnexpectedType e) {
+					return e.result;
+				}
+			default :
+				return super.visitUnaryExpr(expr);
+		}
+	}
+
+	private int specialize(Binary expr, Object left, Object right) {
+		if (left instanceof Double && right instanceof Double)
+			return NUMBER;
+
+		if (Rope.isString(left) && Rope.isString(right)) {
+			switch (expr.operator.type) {
+				case PLUS :
+				case EQUAL_EQUAL :
+				case BANG_EQUAL :
+					return STRING;
+			}
+		}
+		return GENERIC;
+	}
+
+	private Object generalize(Binary expr, Object left, Object right) {
+		expr.specialization = GENERIC;
+		return applyBinary(expr.operator, left, right);
+	}
+
+	private Object numberBinary(Binary expr) {
+		double left;
+		try {
+			left = evaluateNumber(expr.left);
+		} catch (UnexpectedType e) {
+			return generalize(expr, e.result, evaluate(expr.right));
+		}
+		double right;
+		try {
+			right = evaluateNumber(expr.right);
+		} catch (UnexpectedType e) {
+			return generalize(expr, left, e.result);
+		}
+
+		switch (expr.operator.type) {
+			case GREATER :
+				return left > right;
+			case GREATER_EQUAL :
+				return left >= right;
+			case LESS :
+				return left < right;
+			case LESS_EQUAL :
+				return left <= right;
+			case BANG_EQUAL :
+				return !sameNumber(left, right);
+			case EQUAL_EQUAL :
+				return sameNumber(left, right);
+			default :
+				// Only the result of the outermost arithmetic node is boxed.
+				return arithmetic(expr.operator.type, left, right);
+		}
+	}
+
+	private Object stringBinary(Binary expr) {
+		Object left = evaluate(expr.left);
+		Object right = evaluate(expr.right);
+		if (!(Rope.isString(left) && Rope.isString(right)))
+			return generalize(expr, left, right);
+
+		switch (expr.operator.type) {
+			case PLUS :
+				return Rope.concat(left, right);
+			case BANG_EQUAL :
+				return !Rope.equal(left, right);
+			default :
+				return Rope.equal(left, right);
+		}
+	}
+
+	private double evaluateNumber(Expr expr) throws UnexpectedType {
+		if (expr instanceof Binary) {
+			Binary binary = (Binary) expr;
+			if (binary.specialization == NUMBER
+					&& isArithmetic(binary.operator.type)) {
+				return numberArithmetic(binary);
+			}
+		} else if (expr instanceof Unary) {
+			Unary unary = (Unary) expr;
+			if (unary.specialization == NUMBER) {
+				return numberNegate(unary);
+			}
+		} else if (expr instanceof Grouping) {
+			return evaluateNumber(((Grouping) expr).expression);
+		}
+		return expectNumber(evaluate(expr));
+	}
+
+	private double numberArithmetic(Binary expr) throws UnexpectedType {
+		double left;
+		try {
+			left = evaluateNumber(expr.left);
+		} catch (UnexpectedType e) {
+			return expectNumber(generalize(expr, e.result,
+					evaluate(expr.right)));
+		}
+		double right;
+		try {
+			right = evaluateNumber(expr.right);
+		} catch (UnexpectedType e) {
+			return expectNumber(generalize(expr, left, e.result));
+		}
+		return arithmetic(expr.operator.type, left, right);
+	}
+
+	private double numberNegate(Unary expr) throws UnexpectedType {
+		try {
+			return -evaluateNumber(expr.right);
+		} catch (UnexpectedType e) {
+			expr.specialization = GENERIC;
+			return expectNumber(applyUnary(expr.operator, e.result));
+		}
+	}
+
+	private static double expectNumber(Object value) throws UnexpectedType {
+		if (value instanceof Double)
+			return (double) value;
+		throw new UnexpectedType(value);
+	}
+
+	private static boolean isArithmetic(TokenType type) {
+		switch (type) {
+			case MINUS :
+			case PLUS :
+			case SLASH :
+			case STAR :
+				return true;
+			default :
+				return false;
+		}
+	}
+
+	private static double arithmetic(TokenType type, double left, double right) {
+		switch (type) {
+			case MINUS :
+				return left - right;
+			case PLUS :
+				return left + right;
+			case SLASH :
+				return left / right;
+			default :
+				return left * right;
+		}
+	}
+
+	// Same semantics as Double.equals(), which is what isEqual() uses.
+	private static boolean sameNumber(double left, double right) {
+		return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+	}
+}
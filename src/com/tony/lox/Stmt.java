@@ -10,6 +10,7 @@ abstract class Stmt {
     R visitIfStmt(If stmt);
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
+    R visitForStmt(For stmt);
   }
 
   static class Block extends Stmt {
@@ -22,6 +23,7 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    int slots;
   }
 
   static class Expression extends Stmt {
@@ -76,6 +78,7 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    int slot = -1;
   }
 
   static class While extends Stmt {
@@ -92,5 +95,25 @@ abstract class Stmt {
     final Stmt body;
   }
 
+  static class For extends Stmt {
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+    int slots;
+    boolean counted;
+  }
+
   abstract <R> R accept(Visitor<R> visitor);
 }
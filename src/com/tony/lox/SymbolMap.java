@@ -0,0 +1,87 @@
+package com.tony.lox;
+
+import java.util.function.ObjIntConsumer;
+
+/*
+ * Open-addressing hash map from symbol ids to values, used for global
+ * variables. Compared to a HashMap<String, Object> there is no String
+ * hashing, no equals() call and no entry object per variable.
+ */
+class SymbolMap {
+	// slot -> symbol id + 1, 0 for an empty slot
+	private int[] keys = new int[16];
+	private Object[] values = new Object[16];
+	private int size = 0;
+
+	// Slot holding the symbol, or -1 if it is not in the map.
+	int find(int symbol) {
+		int mask = keys.length - 1;
+		int slot = SymbolTable.mix(symbol) & mask;
+		for (;;) {
+			int key = keys[slot];
+			if (key == symbol + 1)
+				return slot;
+			if (key == 0)
+				return -1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	// Whether a slot found earlier, or -1, still holds the symbol. Slots
+	// only move when the map grows.
+	boolean holds(int slot, int symbol) {
+		return slot >= 0 && slot < keys.length && keys[slot] == symbol + 1;
+	}
+
+	Object valueAt(int slot) {
+		return values[slot];
+	}
+
+	void setAt(int slot, Object value) {
+		values[slot] = value;
+	}
+
+	void put(int symbol, Object value) {
+		int slot = find(symbol);
+		if (slot >= 0) {
+			values[slot] = value;
+			return;
+		}
+
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		insert(symbol, value);
+		size++;
+	}
+
+	void forEach(ObjIntConsumer<Object> action) {
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0) {
+				action.accept(values[slot], keys[slot] - 1);
+			}
+		}
+	}
+
+	private void insert(int symbol, Object value) {
+		int mask = keys.length - 1;
+		int slot = SymbolTable.mix(symbol) & mask;
+		while (keys[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = symbol + 1;
+		values[slot] = value;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				insert(oldKeys[i] - 1, oldValues[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.tony.lox;
+
+import java.util.Arrays;
+
+/*
+ * Interned identifiers of one LoxEngine, or of one parse for code that
+ * uses the Scanner directly. Each distinct name gets a dense int id the
+ * first time it is scanned; after that the Scanner reuses the canonical
+ * String and global variables are keyed by the id.
+ *
+ * Ids only mean something together with the table that assigned them, so
+ * a tree is only run against globals keyed by the same table. There is no
+ * locking: like its engine, a table is used by one thread at a time, and
+ * once nothing more is interned (the table of a compiled script) it may be
+ * read from several. It lives as long as its engine or compiled script.
+ */
+final class SymbolTable {
+	private String[] names = new String[64];
+	// open addressing: slot -> id + 1, 0 for an empty slot
+	private int[] slots = new int[128];
+	private int count = 0;
+
+	int intern(String name) {
+		return intern(name, 0, name.length());
+	}
+
+	// Interns source[start, end) without creating a String unless the name
+	// has not been seen before.
+	int intern(String source, int start, int end) {
+		int slot = slot(source, start, end);
+		int entry = slots[slot];
+		if (entry != 0)
+			return entry - 1;
+
+		int id = count++;
+		if (id == names.length) {
+			names = Arrays.copyOf(names, id * 2);
+		}
+		names[id] = source.substring(start, end);
+		slots[slot] = id + 1;
+		if (count * 2 > slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	// Id of the name, or -1 if it was never interned.
+	int find(String name) {
+		return slots[slot(name, 0, name.length())] - 1;
+	}
+
+	String name(int id) {
+		return names[id];
+	}
+
+	int size() {
+		return count;
+	}
+
+	// The slot holding source[start, end), or the empty slot where it goes.
+	private int slot(String source, int start, int end) {
+		int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		for (;;) {
+			int entry = slots[slot];
+			if (entry == 0)
+				return slot;
+			String name = names[entry - 1];
+			if (name.length() == length
+					&& name.regionMatches(0, source, start, length))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void rehash() {
+		int[] table = new int[slots.length * 2];
+		int mask = table.length - 1;
+		for (int id = 0; id < count; id++) {
+			int slot = mix(names[id].hashCode()) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+		slots = table;
+	}
+
+	static int mix(int hash) {
+		return hash * 0x9E3779B9 ^ (hash >>> 16);
+	}
+}
@@ -5,12 +5,16 @@ public class Token {
 	final String lexeme;
 	final Object literal;
 	final int line;
+	// id of an identifier in the SymbolTable of its scanner, -1 for other
+	// tokens
+	final int symbol;
 
-	Token(TokenType type, String lexeme, Object literal, int line) {
+	Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
 		this.type = type;
 		this.lexeme = lexeme;
 		this.literal = literal;
 		this.line = line;
+		this.symbol = symbol;
 	}
 
 	public String toString() {
@@ -0,0 +1,99 @@
+package com.tony.lox;
+
+import java.util.Arrays;
+
+/*
+ * Compact token representation: one entry per token in parallel primitive
+ * arrays instead of one Token object (plus lexeme String and boxed literal)
+ * each. Lexemes and literals are only cut out of the source, and Token
+ * objects only created, when the parser actually needs them.
+ */
+class TokenBuffer implements TokenStream {
+	private static final TokenType[] TYPES = TokenType.values();
+
+	private final String source;
+	private final SymbolTable table;
+	private byte[] types = new byte[64];
+	private int[] starts = new int[64];
+	private int[] lengths = new int[64];
+	private int[] lines = new int[64];
+	private int[] symbols = new int[64];
+	private int count = 0;
+	private int current = 0;
+
+	TokenBuffer(String source, SymbolTable table) {
+		this.source = source;
+		this.table = table;
+	}
+
+	void add(TokenType type, int start, int length, int line, int symbol) {
+		if (count == types.length) {
+			int capacity = count * 2;
+			types = Arrays.copyOf(types, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+			symbols = Arrays.copyOf(symbols, capacity);
+		}
+		types[count] = (byte) type.ordinal();
+		starts[count] = start;
+		lengths[count] = length;
+		lines[count] = line;
+		symbols[count] = symbol;
+		count++;
+	}
+
+	int size() {
+		return count;
+	}
+
+	TokenType type(int index) {
+		return TYPES[types[index]];
+	}
+
+	String lexeme(int index) {
+		if (symbols[index] >= 0)
+			return table.name(symbols[index]);
+		return source.substring(starts[index], starts[index] + lengths[index]);
+	}
+
+	Object literal(int index) {
+		return Scanner.literal(type(index), source, starts[index],
+				starts[index] + lengths[index]);
+	}
+
+	Token token(int index) {
+		return new Token(type(index), lexeme(index), literal(index),
+				lines[index], symbols[index]);
+	}
+
+	@Override
+	public TokenType peekType() {
+		return type(current);
+	}
+
+	@Override
+	public Token peek() {
+		return token(current);
+	}
+
+	@Override
+	public TokenType previousType() {
+		return type(current - 1);
+	}
+
+	@Override
+	public Token previous() {
+		return token(current - 1);
+	}
+
+	@Override
+	public Object previousLiteral() {
+		return literal(current - 1);
+	}
+
+	@Override
+	public void advance() {
+		current++;
+	}
+}
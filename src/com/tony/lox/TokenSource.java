@@ -0,0 +1,9 @@
+package com.tony.lox;
+
+/*
+ * Supplies tokens to the Parser one at a time. After the EOF token has been
+ * returned the parser never asks for another one.
+ */
+interface TokenSource {
+	Token nextToken();
+}
@@ -0,0 +1,21 @@
+package com.tony.lox;
+
+/*
+ * The Parser's view of the token sequence: the current token and the one
+ * just consumed. Implementations may create Token objects lazily, so the
+ * parser asks for types and literals separately and only requests a Token
+ * where it has to keep one (AST nodes, error messages).
+ */
+interface TokenStream {
+	TokenType peekType();
+
+	Token peek();
+
+	TokenType previousType();
+
+	Token previous();
+
+	Object previousLiteral();
+
+	void advance();
+}
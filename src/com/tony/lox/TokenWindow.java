@@ -0,0 +1,51 @@
+package com.tony.lox;
+
+/*
+ * TokenStream pulling Token objects from a TokenSource on demand. Only a
+ * small ring buffer of tokens is kept, so the ones the parser has moved past
+ * can be collected right away.
+ */
+class TokenWindow implements TokenStream {
+	private static final int SIZE = 4; // must be a power of two
+	private final TokenSource source;
+	private final Token[] window = new Token[SIZE];
+	private int current = 0;
+	private int pulled = 0;
+
+	TokenWindow(TokenSource source) {
+		this.source = source;
+	}
+
+	@Override
+	public TokenType peekType() {
+		return peek().type;
+	}
+
+	@Override
+	public Token peek() {
+		if (current == pulled) {
+			window[pulled++ & (SIZE - 1)] = source.nextToken();
+		}
+		return window[current & (SIZE - 1)];
+	}
+
+	@Override
+	public TokenType previousType() {
+		return previous().type;
+	}
+
+	@Override
+	public Token previous() {
+		return window[(current - 1) & (SIZE - 1)];
+	}
+
+	@Override
+	public Object previousLiteral() {
+		return previous().literal;
+	}
+
+	@Override
+	public void advance() {
+		current++;
+	}
+}
@@ -0,0 +1,579 @@
+package com.tony.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A hot loop compiled into a tree of closures, specialized on the
+ * types and branches recorded during one interpreted iteration.
+ *
+ * Nodes whose operands were numbers pass primitive doubles to each other
+ * behind type guards. A failing guard falls back to the generic operation
+ * on the already computed values, and a branch that was not taken during
+ * recording is executed by the interpreter (a side exit). Either way the
+ * trace is marked as failed, and the TracingInterpreter leaves it after
+ * the current iteration.
+ */
+class Trace {
+	// Observed value types, as recorded by the TracingInterpreter.
+	static final int NUMBER = 1;
+	static final int STRING = 2;
+	static final int OTHER = 4;
+	// Observed directions of an if statement.
+	static final int THEN = 1;
+	static final int ELSE = 2;
+
+	private final Interpreter interpreter;
+	private final Map<Expr, Integer> types;
+	private final Map<Stmt.If, Integer> branches;
+	private final Node condition;
+	private final Action body;
+	private final Node increment;
+	private boolean failed = false;
+	// nodes specialized on recorded types
+	int guards = 0;
+
+	// A while loop, or the loop of a for statement with its increment (or
+	// null).
+	Trace(Interpreter interpreter, Expr condition, Stmt body, Expr increment,
+			Map<Expr, Integer> types, Map<Stmt.If, Integer> branches) {
+		this.interpreter = interpreter;
+		this.types = types;
+		this.branches = branches;
+		this.condition = compile(condition);
+		this.body = compile(body);
+		this.increment = increment != null ? compile(increment) : null;
+	}
+
+	// Runs the loop until its condition is false (returns true), or until
+	// the end of an iteration in which the trace failed (returns false).
+	boolean run() {
+		while (condition.truthy()) {
+			body.execute();
+			if (increment != null) {
+				increment.value();
+			}
+			if (failed) {
+				failed = false;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void fail() {
+		failed = true;
+	}
+
+	static int typeOf(Object value) {
+		if (value instanceof Double)
+			return NUMBER;
+		if (Rope.isString(value))
+			return STRING;
+		return OTHER;
+	}
+
+	private boolean observed(Expr expr, int type) {
+		Integer seen = types.get(expr);
+		return seen != null && seen == type;
+	}
+
+	// Compiling statements:
+	// ////////////////////////////////////////////
+
+	private Action compile(Stmt stmt) {
+		if (stmt instanceof Stmt.Block) {
+			Stmt.Block block = (Stmt.Block) stmt;
+			List<Action> statements = new ArrayList<>();
+			for (Stmt statement : block.statements) {
+				statements.add(compile(statement));
+			}
+			return new Block(statements.toArray(new Action[0]), block.slots);
+		}
+		if (stmt instanceof Stmt.Expression) {
+			Node expression = compile(((Stmt.Expression) stmt).expression);
+			return new Action() {
+				@Override
+				void execute() {
+					expression.value();
+				}
+			};
+		}
+		if (stmt instanceof Stmt.Print) {
+			Node expression = compile(((Stmt.Print) stmt).expression);
+			return new Action() {
+				@Override
+				void execute() {
+					interpreter.out.print(expression.value());
+				}
+			};
+		}
+		if (stmt instanceof Stmt.Var) {
+			Stmt.Var var = (Stmt.Var) stmt;
+			Node initializer = var.initializer != null
+					? compile(var.initializer)
+					: new Constant(null);
+			if (var.slot < 0) {
+				return new Action() {
+					@Override
+					void execute() {
+						interpreter.globals.define(var.name, initializer.value());
+					}
+				};
+			}
+			return new Action() {
+				@Override
+				void execute() {
+					interpreter.environment.defineAt(var.slot,
+							initializer.value());
+				}
+			};
+		}
+		if (stmt instanceof Stmt.If)
+			return compileIf((Stmt.If) stmt);
+		if (stmt instanceof Stmt.For)
+			return compileFor((Stmt.For) stmt);
+
+		Stmt.While loop = (Stmt.While) stmt;
+		Node condition = compile(loop.condition);
+		Action body = compile(loop.body);
+		return new Action() {
+			@Override
+			void execute() {
+				while (condition.truthy()) {
+					body.execute();
+				}
+			}
+		};
+	}
+
+	private Action compileIf(Stmt.If stmt) {
+		Node condition = compile(stmt.condition);
+		int taken = branches.getOrDefault(stmt, 0);
+		Action thenBranch = branch(stmt.thenBranch, (taken & THEN) != 0);
+		Action elseBranch = stmt.elseBranch == null
+				? null
+				: branch(stmt.elseBranch, (taken & ELSE) != 0);
+
+		return new Action() {
+			@Override
+			void execute() {
+				if (condition.truthy()) {
+					thenBranch.execute();
+				} else if (elseBranch != null) {
+					elseBranch.execute();
+				}
+			}
+		};
+	}
+
+	private Action compileFor(Stmt.For stmt) {
+		Action initializer = stmt.initializer != null
+				? compile(stmt.initializer)
+				: null;
+		Node condition = compile(stmt.condition);
+		Action body = compile(stmt.body);
+		Node increment = stmt.increment != null
+				? compile(stmt.increment)
+				: null;
+		Action loop = new Action() {
+			@Override
+			void execute() {
+				if (initializer != null) {
+					initializer.execute();
+				}
+				while (condition.truthy()) {
+					body.execute();
+					if (increment != null) {
+						increment.value();
+					}
+				}
+			}
+		};
+		if (stmt.slots == 0)
+			return loop;
+		return new Block(new Action[]{loop}, stmt.slots);
+	}
+
+	private Action branch(Stmt stmt, boolean taken) {
+		if (taken)
+			return compile(stmt);
+
+		// Side exit: leave the branch to the interpreter.
+		return new Action() {
+			@Override
+			void execute() {
+				fail();
+				stmt.accept(interpreter);
+			}
+		};
+	}
+
+	// Compiling expressions:
+	// ////////////////////////////////////////////
+
+	private Node compile(Expr expr) {
+		if (expr instanceof Expr.Literal) {
+			Object value = ((Expr.Literal) expr).value;
+			if (value instanceof Double)
+				return new NumberConstant((double) value);
+			return new Constant(value);
+		}
+		if (expr instanceof Expr.Grouping)
+			return compile(((Expr.Grouping) expr).expression);
+		if (expr instanceof Expr.Variable)
+			return compileVariable((Expr.Variable) expr);
+		if (expr instanceof Expr.Assign)
+			return compileAssign((Expr.Assign) expr);
+		if (expr instanceof Expr.Binary)
+			return compileBinary((Expr.Binary) expr);
+		if (expr instanceof Expr.Unary)
+			return compileUnary((Expr.Unary) expr);
+		return compileLogical((Expr.Logical) expr);
+	}
+
+	private Node compileVariable(Expr.Variable expr) {
+		if (expr.depth < 0) {
+			return new Node() {
+				@Override
+				Object value() {
+					return interpreter.globals.get(expr);
+				}
+			};
+		}
+		return new Node() {
+			@Override
+			Object value() {
+				return interpreter.environment.getAt(expr.depth, expr.slot);
+			}
+		};
+	}
+
+	private Node compileAssign(Expr.Assign expr) {
+		Node value = compile(expr.value);
+		if (expr.depth < 0) {
+			return new Node() {
+				@Override
+				Object value() {
+					Object result = value.value();
+					interpreter.globals.assign(expr, result);
+					return result;
+				}
+			};
+		}
+		return new Node() {
+			@Override
+			Object value() {
+				Object result = value.value();
+				interpreter.environment.assignAt(expr.depth, expr.slot,
+						result);
+				return result;
+			}
+		};
+	}
+
+	private Node compileBinary(Expr.Binary expr) {
+		Node left = compile(expr.left);
+		Node right = compile(expr.right);
+
+		if (observed(expr.left, NUMBER) && observed(expr.right, NUMBER)) {
+			guards++;
+			switch (expr.operator.type) {
+				case GREATER :
+				case GREATER_EQUAL :
+				case LESS :
+				case LESS_EQUAL :
+					return new NumberComparison(expr.operator, left, right);
+				case MINUS :
+				case PLUS :
+				case SLASH :
+				case STAR :
+					return new NumberArithmetic(expr.operator, left, right);
+				default :
+					guards--;
+			}
+		}
+		if (expr.operator.type == TokenType.PLUS
+				&& observed(expr.left, STRING) && observed(expr.right, STRING)) {
+			guards++;
+			return new Concatenation(expr.operator, left, right);
+		}
+		return new Binary(expr.operator, left, right);
+	}
+
+	private Node compileUnary(Expr.Unary expr) {
+		Node right = compile(expr.right);
+
+		if (expr.operator.type == TokenType.MINUS
+				&& observed(expr.right, NUMBER)) {
+			guards++;
+			return new Node() {
+				@Override
+				double number() throws TypeGuard {
+					try {
+						return -right.number();
+					} catch (TypeGuard e) {
+						return expectNumber(generic(e.value));
+					}
+				}
+
+				@Override
+				Object value() {
+					try {
+						return -right.number();
+					} catch (TypeGuard e) {
+						return generic(e.value);
+					}
+				}
+
+				private Object generic(Object value) {
+					fail();
+					return Interpreter.applyUnary(expr.operator, value);
+				}
+			};
+		}
+		return new Node() {
+			@Override
+			Object value() {
+				return Interpreter.applyUnary(expr.operator, right.value());
+			}
+		};
+	}
+
+	private Node compileLogical(Expr.Logical expr) {
+		Node left = compile(expr.left);
+		Node right = compile(expr.right);
+		boolean or = expr.operator.type == TokenType.OR;
+
+		return new Node() {
+			@Override
+			Object value() {
+				Object result = left.value();
+				if (Interpreter.isTruthy(result) == or)
+					return result;
+				return right.value();
+			}
+		};
+	}
+
+	// Nodes:
+	// ////////////////////////////////////////////
+
+	// Thrown by number() when a node produced something else. Carries the
+	// value, so that nothing is evaluated twice.
+	static class TypeGuard extends Exception {
+		final Object value;
+
+		TypeGuard(Object value) {
+			super(null, null, false, false);
+			this.value = value;
+		}
+	}
+
+	private static double expectNumber(Object value) throws TypeGuard {
+		if (value instanceof Double)
+			return (double) value;
+		throw new TypeGuard(value);
+	}
+
+	abstract static class Action {
+		abstract void execute();
+	}
+
+	abstract static class Node {
+		abstract Object value();
+
+		double number() throws TypeGuard {
+			return expectNumber(value());
+		}
+
+		boolean truthy() {
+			return Interpreter.isTruthy(value());
+		}
+	}
+
+	private class Block extends Action {
+		private final Action[] statements;
+		private final int slots;
+
+		Block(Action[] statements, int slots) {
+			this.statements = statements;
+			this.slots = slots;
+		}
+
+		@Override
+		void execute() {
+			Environment previous = interpreter.environment;
+			Environment scope = interpreter.beginScope(slots);
+			try {
+				interpreter.environment = scope;
+				for (Action statement : statements) {
+					statement.execute();
+				}
+			} finally {
+				interpreter.environment = previous;
+				interpreter.endScope(scope, slots);
+			}
+		}
+	}
+
+	private static class Constant extends Node {
+		private final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object value() {
+			return value;
+		}
+	}
+
+	private static class NumberConstant extends Node {
+		private final double number;
+		private final Double value;
+
+		NumberConstant(double number) {
+			this.number = number;
+			this.value = number;
+		}
+
+		@Override
+		double number() {
+			return number;
+		}
+
+		@Override
+		Object value() {
+			return value;
+		}
+	}
+
+	private static class Binary extends Node {
+		final Token operator;
+		final Node left;
+		final Node right;
+
+		Binary(Token operator, Node left, Node right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Object value() {
+			return Interpreter.applyBinary(operator, left.value(),
+					right.value());
+		}
+	}
+
+	private class NumberArithmetic extends Binary {
+		NumberArithmetic(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		double number() throws TypeGuard {
+			double a;
+			try {
+				a = left.number();
+			} catch (TypeGuard e) {
+				return expectNumber(generic(e.value, right.value()));
+			}
+			double b;
+			try {
+				b = right.number();
+			} catch (TypeGuard e) {
+				return expectNumber(generic(a, e.value));
+			}
+
+			switch (operator.type) {
+				case MINUS :
+					return a - b;
+				case PLUS :
+					return a + b;
+				case SLASH :
+					return a / b;
+				default :
+					return a * b;
+			}
+		}
+
+		@Override
+		Object value() {
+			try {
+				// Only the outermost arithmetic node boxes its result.
+				return number();
+			} catch (TypeGuard e) {
+				return e.value;
+			}
+		}
+
+		private Object generic(Object a, Object b) {
+			fail();
+			return Interpreter.applyBinary(operator, a, b);
+		}
+	}
+
+	private class NumberComparison extends Binary {
+		NumberComparison(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		boolean truthy() {
+			double a;
+			try {
+				a = left.number();
+			} catch (TypeGuard e) {
+				return (boolean) generic(e.value, right.value());
+			}
+			double b;
+			try {
+				b = right.number();
+			} catch (TypeGuard e) {
+				return (boolean) generic(a, e.value);
+			}
+
+			switch (operator.type) {
+				case GREATER :
+					return a > b;
+				case GREATER_EQUAL :
+					return a >= b;
+				case LESS :
+					return a < b;
+				default :
+					return a <= b;
+			}
+		}
+
+		@Override
+		Object value() {
+			return truthy();
+		}
+
+		private Object generic(Object a, Object b) {
+			fail();
+			return Interpreter.applyBinary(operator, a, b);
+		}
+	}
+
+	private class Concatenation extends Binary {
+		Concatenation(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object value() {
+			Object a = left.value();
+			Object b = right.value();
+			if (Rope.isString(a) && Rope.isString(b))
+				return Rope.concat(a, b);
+
+			fail();
+			return Interpreter.applyBinary(operator, a, b);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.tony.lox;
+
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.tony.lox.Stmt.For;
+import com.tony.lox.Stmt.If;
+import com.tony.lox.Stmt.While;
+
+/*
+ * Interpreter mode with a tracing JIT for while and for loops. Every loop counts
+ * its back edges; once a loop reaches the threshold, its next iteration is
+ * interpreted while recording the types of all values and the directions
+ * of all if statements, and the loop is then compiled into a Trace that
+ * runs the remaining iterations. A trace whose guards fail is thrown away
+ * and the loop continues in the interpreter, to be recorded again later.
+ */
+class TracingInterpreter extends Interpreter {
+	static final int DEFAULT_THRESHOLD = 1000;
+	// Loops that deoptimize this often are not compiled again.
+	private static final int MAX_DEOPTIMIZATIONS = 3;
+
+	private final int threshold;
+	// compiled loops are reported here, if not null
+	private final PrintStream log;
+	private final Map<Stmt, Loop> loops = new IdentityHashMap<>();
+
+	// Types and branches seen while recording, or null.
+	private Map<Expr, Integer> types = null;
+	private Map<If, Integer> branches = null;
+
+	private static class Loop {
+		int backEdges = 0;
+		int deoptimizations = 0;
+		Trace trace = null;
+	}
+
+	TracingInterpreter(Output out, ErrorReporter errors, boolean cacheStats,
+			int threshold, PrintStream log) {
+		super(out, errors, cacheStats);
+		this.threshold = threshold;
+		this.log = log;
+	}
+
+	@Override
+	Object evaluate(Expr expr) {
+		Object value = super.evaluate(expr);
+		if (types != null) {
+			types.merge(expr, Trace.typeOf(value), (a, b) -> a | b);
+		}
+		return value;
+	}
+
+	@Override
+	public Void visitIfStmt(If stmt) {
+		if (branches == null)
+			return super.visitIfStmt(stmt);
+
+		boolean truthy = isTruthy(evaluate(stmt.condition));
+		branches.merge(stmt, truthy ? Trace.THEN : Trace.ELSE, (a, b) -> a
+				| b);
+		if (truthy) {
+			stmt.thenBranch.accept(this);
+		} else if (stmt.elseBranch != null) {
+			stmt.elseBranch.accept(this);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(While stmt) {
+		run(stmt, stmt.condition, stmt.body, null);
+		return null;
+	}
+
+	// For loops are traced like while loops, rather than counted.
+	@Override
+	void runFor(For stmt) {
+		run(stmt, stmt.condition, stmt.body, stmt.increment);
+	}
+
+	// Runs a while loop, or the loop of a for statement with its increment.
+	private void run(Stmt stmt, Expr condition, Stmt body, Expr increment) {
+		Loop loop = loops.computeIfAbsent(stmt, s -> new Loop());
+
+		for (;;) {
+			// While recording an enclosing loop, interpret so that the
+			// types in this one are recorded too.
+			if (loop.trace != null && types == null) {
+				if (loop.trace.run())
+					return;
+				deoptimize(stmt, loop);
+				continue;
+			}
+
+			// If the loop ends during recording, the next run of it records.
+			if (loop.backEdges == threshold && loop.trace == null
+					&& loop.deoptimizations < MAX_DEOPTIMIZATIONS) {
+				if (!record(stmt, condition, body, increment, loop))
+					return;
+				continue;
+			}
+
+			if (loop.backEdges < threshold) {
+				loop.backEdges++;
+			}
+			if (!isTruthy(evaluate(condition)))
+				return;
+			body.accept(this);
+			if (increment != null) {
+				evaluate(increment);
+			}
+		}
+	}
+
+	// Interprets one iteration while recording, then compiles the loop.
+	// Returns false if the loop ended instead.
+	private boolean record(Stmt stmt, Expr condition, Stmt body,
+			Expr increment, Loop loop) {
+		Map<Expr, Integer> outerTypes = types;
+		Map<If, Integer> outerBranches = branches;
+		// A loop nested in a loop being recorded shares its recording.
+		if (types == null) {
+			types = new IdentityHashMap<>();
+			branches = new IdentityHashMap<>();
+		}
+
+		try {
+			if (!isTruthy(evaluate(condition)))
+				return false;
+			body.accept(this);
+			if (increment != null) {
+				evaluate(increment);
+			}
+
+			loop.trace = new Trace(this, condition, body, increment, types,
+					branches);
+			if (log != null) {
+				out.flush();
+				log.println("[jit] compiled " + describe(stmt) + " after "
+						+ threshold + " iterations (" + loop.trace.guards
+						+ " specialized nodes)");
+			}
+			return true;
+		} finally {
+			types = outerTypes;
+			branches = outerBranches;
+		}
+	}
+
+	private void deoptimize(Stmt stmt, Loop loop) {
+		loop.trace = null;
+		loop.backEdges = 0;
+		loop.deoptimizations++;
+		if (log != null) {
+			out.flush();
+			log.println("[jit] deoptimized " + describe(stmt)
+					+ (loop.deoptimizations < MAX_DEOPTIMIZATIONS
+							? ""
+							: ", not compiling it again"));
+		}
+	}
+
+	private static String describe(Stmt stmt) {
+		String kind = stmt instanceof For ? "for loop" : "while loop";
+		int line = lineOf(stmt instanceof For
+				? ((For) stmt).condition
+				: ((While) stmt).condition);
+		return line < 0 ? kind : kind + " at line " + line;
+	}
+
+	private static int lineOf(Expr expr) {
+		if (expr instanceof Expr.Binary)
+			return ((Expr.Binary) expr).operator.line;
+		if (expr instanceof Expr.Logical)
+			return ((Expr.Logical) expr).operator.line;
+		if (expr instanceof Expr.Unary)
+			return ((Expr.Unary) expr).operator.line;
+		if (expr instanceof Expr.Variable)
+			return ((Expr.Variable) expr).name.line;
+		if (expr instanceof Expr.Assign)
+			return ((Expr.Assign) expr).name.line;
+		if (expr instanceof Expr.Grouping)
+			return lineOf(((Expr.Grouping) expr).expression);
+		return -1;
+	}
+}
@@ -0,0 +1,263 @@
+package com.tony.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Stack based virtual machine executing chunks produced by BytecodeCompiler.
+ * Output and runtime error messages match the tree-walking Interpreter.
+ *
+ * Lox here has no calls, so the stack, ip and sp are all the state of a
+ * running chunk. They live in an Execution, which lets a chunk be paused at
+ * a loop back edge and resumed later, possibly on another thread.
+ */
+class VM {
+	private final Map<String, Object> globals = new HashMap<>();
+	private final Output out;
+	private final ErrorReporter errors;
+
+	VM(Output out, ErrorReporter errors) {
+		this.out = out;
+		this.errors = errors;
+	}
+
+	// A chunk being run, with everything needed to continue it.
+	static final class Execution {
+		final Chunk chunk;
+		final Object[] stack;
+		int sp = 0;
+		int ip = 0;
+		// LOOP instructions executed so far
+		long backEdges = 0;
+
+		Execution(Chunk chunk) {
+			this.chunk = chunk;
+			this.stack = new Object[chunk.maxStack + 1];
+		}
+	}
+
+	void interpret(Chunk chunk) {
+		resume(new Execution(chunk), Long.MAX_VALUE);
+	}
+
+	// Runs until the chunk returns or, at a loop back edge, has taken
+	// "limit" back edges in total. Returns whether it is finished; a runtime
+	// error is reported and finishes it.
+	boolean resume(Execution execution, long limit) {
+		try {
+			return run(execution, limit);
+		} catch (RuntimeError error) {
+			errors.runtimeError(error);
+			return true;
+		}
+	}
+
+	private boolean run(Execution execution, long limit) {
+		final Chunk chunk = execution.chunk;
+		final byte[] code = chunk.code;
+		final Object[] constants = chunk.constants();
+		final Object[] stack = execution.stack;
+		int sp = execution.sp;
+		int ip = execution.ip;
+		long backEdges = execution.backEdges;
+
+		for (;;) {
+			// ip of the current instruction, used for error lines
+			int start = ip;
+			switch (code[ip++]) {
+				case OpCode.CONSTANT :
+					stack[sp++] = constants[readShort(code, ip)];
+					ip += 2;
+					break;
+				case OpCode.NIL :
+					stack[sp++] = null;
+					break;
+				case OpCode.TRUE :
+					stack[sp++] = Boolean.TRUE;
+					break;
+				case OpCode.FALSE :
+					stack[sp++] = Boolean.FALSE;
+					break;
+				case OpCode.POP :
+					sp--;
+					break;
+				case OpCode.RESERVE : {
+					int count = readShort(code, ip);
+					ip += 2;
+					for (int i = 0; i < count; i++) {
+						stack[sp++] = null;
+					}
+					break;
+				}
+				case OpCode.POPN : {
+					int count = readShort(code, ip);
+					ip += 2;
+					for (int i = 0; i < count; i++) {
+						stack[--sp] = null;
+					}
+					break;
+				}
+				case OpCode.GET_LOCAL :
+					stack[sp++] = stack[readShort(code, ip)];
+					ip += 2;
+					break;
+				case OpCode.SET_LOCAL :
+					stack[readShort(code, ip)] = stack[sp - 1];
+					ip += 2;
+					break;
+				case OpCode.GET_GLOBAL : {
+					String name = (String) constants[readShort(code, ip)];
+					ip += 2;
+					Object value = globals.get(name);
+					if (value == null && !globals.containsKey(name)) {
+						throw undefined(chunk, start, name);
+					}
+					stack[sp++] = value;
+					break;
+				}
+				case OpCode.DEFINE_GLOBAL :
+					globals.put((String) constants[readShort(code, ip)],
+							stack[--sp]);
+					stack[sp] = null;
+					ip += 2;
+					break;
+				case OpCode.SET_GLOBAL : {
+					String name = (String) constants[readShort(code, ip)];
+					ip += 2;
+					if (!globals.containsKey(name)) {
+						throw undefined(chunk, start, name);
+					}
+					globals.put(name, stack[sp - 1]);
+					break;
+				}
+				case OpCode.EQUAL : {
+					Object b = stack[--sp];
+					stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+					break;
+				}
+				case OpCode.NOT_EQUAL : {
+					Object b = stack[--sp];
+					stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+					break;
+				}
+				case OpCode.GREATER : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a > (double) b;
+					break;
+				}
+				case OpCode.GREATER_EQUAL : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a >= (double) b;
+					break;
+				}
+				case OpCode.LESS : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a < (double) b;
+					break;
+				}
+				case OpCode.LESS_EQUAL : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a <= (double) b;
+					break;
+				}
+				case OpCode.ADD : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					if (a instanceof Double && b instanceof Double) {
+						stack[sp - 1] = (double) a + (double) b;
+					} else if (Rope.isString(a) && Rope.isString(b)) {
+						stack[sp - 1] = Rope.concat(a, b);
+					} else {
+						throw new RuntimeError(chunk.getLine(start),
+								"Operands must be two numbers or two strings.");
+					}
+					break;
+				}
+				case OpCode.SUBTRACT : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a - (double) b;
+					break;
+				}
+				case OpCode.MULTIPLY : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a * (double) b;
+					break;
+				}
+				case OpCode.DIVIDE : {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(chunk, start, a, b);
+					stack[sp - 1] = (double) a / (double) b;
+					break;
+				}
+				case OpCode.NOT :
+					stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+					break;
+				case OpCode.NEGATE : {
+					Object a = stack[sp - 1];
+					if (!(a instanceof Double)) {
+						throw new RuntimeError(chunk.getLine(start),
+								"Operand must be a number.");
+					}
+					stack[sp - 1] = -(double) a;
+					break;
+				}
+				case OpCode.PRINT :
+					out.print(stack[--sp]);
+					stack[sp] = null;
+					break;
+				case OpCode.JUMP :
+					ip += 2 + readShort(code, ip);
+					break;
+				case OpCode.JUMP_IF_FALSE :
+					if (Interpreter.isTruthy(stack[sp - 1])) {
+						ip += 2;
+					} else {
+						ip += 2 + readShort(code, ip);
+					}
+					break;
+				case OpCode.LOOP :
+					ip = ip + 2 - readShort(code, ip);
+					if (++backEdges >= limit) {
+						execution.sp = sp;
+						execution.ip = ip;
+						execution.backEdges = backEdges;
+						return false;
+					}
+					break;
+				case OpCode.RETURN :
+					execution.backEdges = backEdges;
+					return true;
+			}
+		}
+	}
+
+	private static int readShort(byte[] code, int ip) {
+		return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+	}
+
+	private static void checkNumberOperands(Chunk chunk, int ip, Object left,
+			Object right) {
+		if (left instanceof Double && right instanceof Double)
+			return;
+
+		throw new RuntimeError(chunk.getLine(ip), "Operands must be numbers.");
+	}
+
+	private static RuntimeError undefined(Chunk chunk, int ip, String name) {
+		return new RuntimeError(chunk.getLine(ip), "Undefined variable '"
+				+ name + "'.");
+	}
+}
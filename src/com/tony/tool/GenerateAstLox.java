@@ -12,24 +12,25 @@ public class GenerateAstLox {
 		String outputDir = "./src/com/tony/lox";
 
 		defineAst(outputDir, "Expr", Arrays.asList(
-				"Assign   : Token name, Expr value",
-				"Binary   : Expr left, Token operator, Expr right",
+				"Assign   : Token name, Expr value | int depth = -1, int slot = -1, int globalSlot = -1",
+				"Binary   : Expr left, Token operator, Expr right | int specialization",
 				"Grouping : Expr expression", "Literal  : Object value",
 				"Logical  : Expr left, Token operator, Expr right",
-				"Unary    : Token operator, Expr right",
-				"Variable : Token name"));
+				"Unary    : Token operator, Expr right | int specialization",
+				"Variable : Token name | int depth = -1, int slot = -1, int globalSlot = -1"));
 		System.out.println("Done generating Expr classes");
 
 		defineAst(
 				outputDir,
 				"Stmt",
 				Arrays.asList(
-						"Block      : List<Stmt> statements",
+						"Block      : List<Stmt> statements | int slots",
 						"Expression : Expr expression",
 						"Print      : Expr expression",
 						"If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-						"Var        : Token name, Expr initializer",
-						"While      : Expr condition, Stmt body"));
+						"Var        : Token name, Expr initializer | int slot = -1",
+						"While      : Expr condition, Stmt body",
+						"For        : Stmt initializer, Expr condition, Expr increment, Stmt body | int slots, boolean counted"));
 		System.out.println("Done generating Stmt classes");
 	}
 	private static void defineAst(String outputDir, String baseName,
@@ -46,8 +47,12 @@ public class GenerateAstLox {
 		// The AST classes.
 		for (String type : types) {
 			String className = type.split(":")[0].trim();
-			String fields = type.split(":")[1].trim();
-			defineType(writer, baseName, className, fields);
+			// Fields after '|' are not constructor parameters but mutable
+			// state filled in by later passes (e.g. the Resolver).
+			String[] parts = type.split(":")[1].split("\\|");
+			String fields = parts[0].trim();
+			String state = parts.length > 1 ? parts[1].trim() : null;
+			defineType(writer, baseName, className, fields, state);
 		}
 
 		// The base accept() method.
@@ -70,7 +75,7 @@ public class GenerateAstLox {
 		writer.println("  }");
 	}
 	private static void defineType(PrintWriter writer, String baseName,
-			String className, String fieldList) {
+			String className, String fieldList, String stateList) {
 		writer.println("");
 		writer.println("  static class " + className + " extends " + baseName
 				+ " {");
@@ -96,6 +101,11 @@ public class GenerateAstLox {
 		for (String field : fields) {
 			writer.println("    final " + field + ";");
 		}
+		if (stateList != null) {
+			for (String field : stateList.split(", ")) {
+				writer.println("    " + field + ";");
+			}
+		}
 		writer.println("  }");
 	}
 }
@@ -0,0 +1,269 @@
+package com.tony.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Runs temporary directories of scripts through BatchRunner: statuses,
+ * input order under parallelism, results reported as soon as they are
+ * ready, crashes contained to their script, and the output directory.
+ */
+@Timeout(30)
+class BatchRunnerTest {
+	@TempDir
+	Path temp;
+
+	@Test
+	void statusesAndReport() throws IOException {
+		Path scripts = Files.createDirectories(temp.resolve("scripts"));
+		write(scripts, "a_ok.lox", "print 1 + 2;");
+		write(scripts, "b_syntax.lox", "print ;");
+		write(scripts, "c_runtime.lox", "print -nil;");
+		write(scripts, "d_ok.lox", "print \"d\";");
+
+		Report report = new Report();
+		int status = new BatchRunner(new LoxEngine(), 4, null).run(BatchRunner
+				.collect(List.of(scripts.toString())), report.stream);
+
+		assertEquals(BatchRunner.RUNTIME_ERROR, status);
+		String text = report.text();
+		assertTrue(text.startsWith("==> " + scripts.resolve("a_ok.lox")
+				+ " <==\n3\n==> " + scripts.resolve("b_syntax.lox") + " <==\n"
+				+ "\n[line 1] Error at ';': Expected expression.\n==> "
+				+ scripts.resolve("c_runtime.lox") + " <==\n"
+				+ "Operand must be a number.\n[line 1]\n==> "
+				+ scripts.resolve("d_ok.lox") + " <==\nd\n\n65\t" + scripts
+						.resolve("b_syntax.lox") + "\n70\t" + scripts.resolve(
+								"c_runtime.lox") + "\nRan 4 scripts in "),
+				text);
+		assertTrue(text.endsWith(" threads: 2 ok, 1 with errors (65), 1 with"
+				+ " runtime errors (70), 0 with I/O errors (74).\n"), text);
+	}
+
+	@Test
+	void unreadableScriptsAreIoErrors() throws IOException {
+		Path missing = temp.resolve("missing.lox");
+		Report report = new Report();
+		int status = new BatchRunner(new LoxEngine(), 1, null).run(BatchRunner
+				.collect(List.of(missing.toString())), report.stream);
+		assertEquals(BatchRunner.IO_ERROR, status);
+		assertTrue(report.text().contains("Could not read " + missing),
+				report.text());
+	}
+
+	// Scripts finish in reverse order; they are still reported in input
+	// order, with the right output each.
+	@Test
+	void resultsKeepInputOrderUnderParallelism() throws IOException {
+		Path scripts = Files.createDirectories(temp.resolve("scripts"));
+		int count = 24;
+		for (int i = 0; i < count; i++) {
+			// Earlier scripts loop longer.
+			write(scripts, String.format("s%02d.lox", i), "var n = 0;"
+					+ " while (n < " + (count - i) * 20_000 + ") n = n + 1;"
+					+ " print " + i + ";");
+		}
+
+		Report report = new Report();
+		int status = new BatchRunner(new LoxEngine(), 8, null).run(BatchRunner
+				.collect(List.of(scripts.toString())), report.stream);
+
+		assertEquals(BatchRunner.OK, status);
+		List<String> lines = Arrays.asList(report.text().split("\n"));
+		for (int i = 0; i < count; i++) {
+			assertEquals("==> " + scripts.resolve(String.format("s%02d.lox",
+					i)) + " <==", lines.get(2 * i));
+			assertEquals(String.valueOf(i), lines.get(2 * i + 1));
+		}
+	}
+
+	// The first script's result is out while the second is still running,
+	// and the third, although finished, waits for the second.
+	@Test
+	void resultsAreReportedAsSoonAsReady() throws Exception {
+		Path scripts = Files.createDirectories(temp.resolve("scripts"));
+		write(scripts, "a.lox", "print \"a\";");
+		write(scripts, "b.lox", "// wait\nprint \"b\";");
+		write(scripts, "c.lox", "print \"c\";");
+
+		Hooks options = new Hooks();
+		Report report = new Report();
+		AtomicReference<Integer> status = new AtomicReference<>();
+		Thread batch = new Thread(() -> {
+			try {
+				status.set(new BatchRunner(options, 3, null).run(BatchRunner
+						.collect(List.of(scripts.toString())),
+						report.stream));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		batch.start();
+
+		while (!report.text().contains("a\n") || options.finished
+				.get() < 2) {
+			Thread.sleep(10);
+		}
+		String early = report.text();
+		assertEquals("==> " + scripts.resolve("a.lox") + " <==\na\n", early);
+
+		options.release.countDown();
+		batch.join();
+		assertEquals(BatchRunner.OK, status.get());
+		assertTrue(report.text().startsWith(early + "==> " + scripts.resolve(
+				"b.lox") + " <==\nb\n==> " + scripts.resolve("c.lox")
+				+ " <==\nc\n"), report.text());
+	}
+
+	@Test
+	void crashesAreContainedToTheirScript() throws IOException {
+		Path scripts = Files.createDirectories(temp.resolve("scripts"));
+		write(scripts, "a.lox", "print 1;");
+		write(scripts, "b.lox", "// throw\nprint 2;");
+		write(scripts, "c.lox", "// error\nprint 3;");
+		write(scripts, "d.lox", "print " + "(".repeat(200_000) + "1" + ")"
+				.repeat(200_000) + ";");
+		write(scripts, "e.lox", "print 5;");
+
+		Report report = new Report();
+		int status = new BatchRunner(new Hooks(), 2, null).run(BatchRunner
+				.collect(List.of(scripts.toString())), report.stream);
+
+		assertEquals(BatchRunner.RUNTIME_ERROR, status);
+		String text = report.text();
+		assertTrue(text.contains(" <==\n1\n==> "), text);
+		assertTrue(text.contains(" <==\nScript failed:"
+				+ " java.lang.IllegalStateException: crash\n==> "), text);
+		assertTrue(text.contains(" <==\nScript failed:"
+				+ " java.lang.OutOfMemoryError: Java heap space\n==> "), text);
+		assertTrue(text.contains(" <==\nStack overflow.\n==> "), text);
+		assertTrue(text.contains(" <==\n5\n"), text);
+		assertTrue(text.contains(" threads: 2 ok, 0 with errors (65), 3 with"
+				+ " runtime errors (70), 0 with I/O errors (74).\n"), text);
+	}
+
+	@Test
+	void outputDirectory() throws IOException {
+		Path scripts = Files.createDirectories(temp.resolve("scripts"));
+		write(Files.createDirectories(scripts.resolve("nested")), "a.lox",
+				"print 1;");
+		write(scripts, "b.lox", "print nope;");
+		write(scripts, "c.lox", "print 3;");
+		Path output = temp.resolve("output");
+		// A directory where c's output file should go makes writing it fail.
+		Files.createDirectories(output.resolve("c.lox.out"));
+
+		Report report = new Report();
+		int status = new BatchRunner(new LoxEngine(), 2, output).run(
+				BatchRunner.collect(List.of(scripts.toString())),
+				report.stream);
+
+		assertEquals(BatchRunner.IO_ERROR, status);
+		assertEquals("1\n", read(output.resolve("nested/a.lox.out")));
+		assertFalse(Files.exists(output.resolve("nested/a.lox.err")));
+		assertEquals("", read(output.resolve("b.lox.out")));
+		assertEquals("Undefined variable 'nope'.\n[line 1]\n", read(output
+				.resolve("b.lox.err")));
+
+		List<String> statuses = Files.readAllLines(output.resolve(
+				"status.txt"), Charset.defaultCharset()).stream().map(
+						line -> line.replaceFirst("\t\\d+\t", "\t"))
+				.collect(Collectors.toList());
+		assertEquals(List.of("70\t" + scripts.resolve("b.lox"), "74\t"
+				+ scripts.resolve("c.lox"), "0\t" + scripts.resolve(
+						"nested/a.lox")), statuses);
+
+		String text = report.text();
+		assertTrue(text.startsWith("==> " + scripts.resolve("c.lox")
+				+ " <==\nCould not write the output of " + scripts.resolve(
+						"c.lox") + ": "), text);
+		assertTrue(text.contains("\n70\t" + scripts.resolve("b.lox")
+				+ "\n74\t" + scripts.resolve("c.lox") + "\n"), text);
+	}
+
+	@Test
+	void scriptListFiles() throws IOException {
+		Path scripts = Files.createDirectories(temp.resolve("scripts"));
+		Path a = write(scripts, "a.lox", "print 1;");
+		Path b = write(scripts, "b.lox", "print 2;");
+		Path list = temp.resolve("list.txt");
+		Files.write(list, List.of(b.toString(), "", "  " + a + "  "),
+				Charset.defaultCharset());
+
+		List<BatchRunner.Script> collected = BatchRunner.collect(List.of("@"
+				+ list));
+		assertEquals(List.of(b, a), collected.stream().map(
+				script -> script.path).collect(Collectors.toList()));
+		assertEquals(Path.of("b.lox"), collected.get(0).name);
+	}
+
+	private static Path write(Path directory, String name, String source)
+			throws IOException {
+		return Files.writeString(directory.resolve(name), source, Charset
+				.defaultCharset());
+	}
+
+	private static String read(Path file) throws IOException {
+		return Files.readString(file, Charset.defaultCharset());
+	}
+
+	private static final class Report {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final PrintStream stream = new PrintStream(bytes, true,
+				StandardCharsets.UTF_8);
+
+		String text() {
+			return bytes.toString(StandardCharsets.UTF_8);
+		}
+	}
+
+	// Engine options whose engines act on a marker comment in the script:
+	// "// throw" and "// error" crash the engine, "// wait" blocks until
+	// released.
+	private static final class Hooks extends LoxEngine {
+		final CountDownLatch release = new CountDownLatch(1);
+		// Scripts run to the end.
+		final AtomicInteger finished = new AtomicInteger();
+
+		@Override
+		public LoxEngine withOutput(PrintStream out, PrintStream err) {
+			return new LoxEngine(out, err) {
+				@Override
+				public void run(String source) {
+					if (source.startsWith("// throw"))
+						throw new IllegalStateException("crash");
+					if (source.startsWith("// error"))
+						throw new OutOfMemoryError("Java heap space");
+					if (source.startsWith("// wait")) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					super.run(source);
+					finished.incrementAndGet();
+				}
+			};
+		}
+	}
+}
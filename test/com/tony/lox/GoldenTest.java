@@ -0,0 +1,149 @@
+package com.tony.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicContainer.dynamicContainer;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DynamicContainer;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Runs every script in test/golden under every backend and every option
+ * that changes how a script is executed, and compares its stdout and stderr
+ * with the .out and .err files next to it (a missing file means no output).
+ * The expected files are the output of the tree-walking interpreter.
+ *
+ * Reports some options print to stderr, such as "[optimizer] ...", are not
+ * part of the comparison.
+ */
+class GoldenTest {
+	private static final Path GOLDEN = Paths.get(System.getProperty(
+			"golden.dir", "test/golden"));
+
+	// Low enough that loops in the scripts run both interpreted and traced.
+	private static final int JIT_THRESHOLD = 2;
+
+	private enum Mode {
+		INTERPRETER, VM, CLOSURES, SPECIALIZE, JIT, FUSE, COMPACT_TOKENS,
+		OPTIMIZE, PROFILE, AST_CACHE, AST_CACHE_OPTIMIZED, COMPILED
+	}
+
+	@TempDir
+	static Path temp;
+
+	@TestFactory
+	Stream<DynamicContainer> golden() throws IOException {
+		List<Path> scripts;
+		try (Stream<Path> files = Files.list(GOLDEN)) {
+			scripts = files.filter(file -> file.toString().endsWith(".lox"))
+					.sorted().collect(Collectors.toList());
+		}
+		return scripts.stream().map(script -> dynamicContainer(script
+				.getFileName().toString(), Arrays.stream(Mode.values()).map(
+						mode -> dynamicTest(mode.name(), () -> check(script,
+								mode)))));
+	}
+
+	private static void check(Path script, Mode mode) throws IOException {
+		String source = read(script);
+		String[] output = run(script, source, mode);
+		assertEquals(expected(script, ".out"), output[0], "stdout");
+		assertEquals(expected(script, ".err"), output[1], "stderr");
+	}
+
+	// stdout and stderr of the script.
+	private static String[] run(Path script, String source, Mode mode)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		LoxEngine engine = new LoxEngine(new PrintStream(out, true,
+				StandardCharsets.UTF_8), new PrintStream(err, true,
+						StandardCharsets.UTF_8));
+		Path work = Files.createDirectories(temp.resolve(mode.name()));
+
+		switch (mode) {
+			case INTERPRETER :
+				break;
+			case VM :
+				engine.setBackend(LoxEngine.Backend.VM);
+				break;
+			case CLOSURES :
+				engine.setBackend(LoxEngine.Backend.CLOSURES);
+				break;
+			case SPECIALIZE :
+				engine.setBackend(LoxEngine.Backend.SPECIALIZING);
+				break;
+			case JIT :
+				engine.setBackend(LoxEngine.Backend.TRACING_JIT);
+				engine.setJit(JIT_THRESHOLD, false);
+				break;
+			case FUSE :
+				engine.setFuse(true);
+				break;
+			case COMPACT_TOKENS :
+				engine.setCompactTokens(true);
+				break;
+			case OPTIMIZE :
+				engine.setOptimize(true);
+				break;
+			case PROFILE :
+				engine.setProfile(true);
+				break;
+			case AST_CACHE_OPTIMIZED :
+				engine.setOptimize(true);
+				// fall through
+			case AST_CACHE :
+				// The first run stores the tree, the second loads it.
+				engine.setAstCache(work);
+				engine.withOutput(new PrintStream(
+						new ByteArrayOutputStream()), new PrintStream(
+								new ByteArrayOutputStream())).run(source);
+				break;
+			case COMPILED : {
+				Path copy = Files.copy(script, work.resolve(script
+						.getFileName()));
+				Path jar = engine.compile(copy, source);
+				if (jar != null) {
+					engine.runClass(jar);
+				}
+				return output(out, err);
+			}
+		}
+		engine.run(source);
+		return output(out, err);
+	}
+
+	private static String[] output(ByteArrayOutputStream out,
+			ByteArrayOutputStream err) {
+		String errors = Arrays.stream(err.toString(StandardCharsets.UTF_8)
+				.split("\n", -1)).filter(line -> !line.startsWith(
+						"[optimizer]") && !line.startsWith("[fuser]")).collect(
+								Collectors.joining("\n"));
+		return new String[]{out.toString(StandardCharsets.UTF_8), errors};
+	}
+
+	private static String expected(Path script, String extension)
+			throws IOException {
+		String name = script.getFileName().toString();
+		Path file = script.resolveSibling(name.substring(0, name.length()
+				- ".lox".length()) + extension);
+		return Files.exists(file) ? read(file) : "";
+	}
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,189 @@
+package com.tony.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * The JSR-223 engine: lookup through ScriptEngineManager, compile() and
+ * eval(), the compiled-script cache, and globals going in and out through
+ * Bindings.
+ */
+class LoxScriptEngineTest {
+	private static final String NEWLINE = System.lineSeparator();
+
+	@Test
+	void foundByNameExtensionAndMimeType() {
+		ScriptEngineManager manager = new ScriptEngineManager();
+		for (ScriptEngine engine : List.of(manager.getEngineByName("lox"),
+				manager.getEngineByName("jlox"), manager.getEngineByExtension(
+						"lox"), manager.getEngineByMimeType(
+								"application/x-lox"))) {
+			assertTrue(engine instanceof LoxScriptEngine, String.valueOf(
+					engine));
+			assertEquals("Lox", engine.getFactory().getLanguageName());
+		}
+	}
+
+	@Test
+	void evalWritesToTheContextWriter() throws ScriptException {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName(
+				"lox");
+		StringWriter out = new StringWriter();
+		engine.getContext().setWriter(out);
+		engine.eval("print 1 + 2; print \"a\" + \"b\";");
+		assertEquals("3" + NEWLINE + "ab" + NEWLINE, out.toString());
+	}
+
+	@Test
+	void compiledScriptsRunAgainWithFreshGlobals() throws ScriptException {
+		LoxScriptEngine engine = new LoxScriptEngine();
+		CompiledScript script = engine.compile("var n = x * 2; print n;");
+
+		StringWriter out = new StringWriter();
+		for (int x = 1; x <= 3; x++) {
+			ScriptContext context = context(out);
+			context.getBindings(ScriptContext.ENGINE_SCOPE).put("x", x);
+			script.eval(context);
+			assertEquals(2.0 * x, context.getAttribute("n"));
+		}
+		assertEquals("2" + NEWLINE + "4" + NEWLINE + "6" + NEWLINE, out
+				.toString());
+		assertSame(engine, script.getEngine());
+	}
+
+	@Test
+	void evalAndCompileShareTheCache() throws ScriptException {
+		LoxScriptEngine engine = new LoxScriptEngine();
+		engine.getContext().setWriter(new StringWriter());
+		String source = "var cached = 1;";
+		engine.eval(source);
+		CompiledScript compiled = engine.compile(source);
+		assertSame(compiled, engine.compile(source));
+		engine.eval(source);
+		assertSame(compiled, engine.compile(source));
+	}
+
+	@Test
+	void cacheEvictsTheLeastRecentlyUsedScript() throws ScriptException {
+		LoxScriptEngine engine = new LoxScriptEngine(
+				new LoxScriptEngineFactory(), 2);
+		CompiledScript a = engine.compile("print 1;");
+		CompiledScript b = engine.compile("print 2;");
+		// Using a makes b the eldest.
+		assertSame(a, engine.compile("print 1;"));
+		engine.compile("print 3;");
+
+		assertSame(a, engine.compile("print 1;"));
+		assertNotSame(b, engine.compile("print 2;"));
+	}
+
+	@Test
+	void syntaxErrorsFailCompile() {
+		LoxScriptEngine engine = new LoxScriptEngine();
+		ScriptException error = assertThrows(ScriptException.class,
+				() -> engine.compile("print ;"));
+		assertTrue(error.getMessage().startsWith(
+				"[line 1] Error at ';': Expected expression."), error
+						.getMessage());
+	}
+
+	@Test
+	void runtimeErrorsFailEvalAfterTheOutputBeforeThem() {
+		LoxScriptEngine engine = new LoxScriptEngine();
+		StringWriter out = new StringWriter();
+		engine.getContext().setWriter(out);
+		ScriptException error = assertThrows(ScriptException.class,
+				() -> engine.eval("print 1; print -nil;"));
+		assertTrue(error.getMessage().startsWith(
+				"Operand must be a number.\n[line 1]"), error.getMessage());
+		assertEquals("1" + NEWLINE, out.toString());
+	}
+
+	@Test
+	void bindingsRoundTrip() throws ScriptException {
+		LoxScriptEngine engine = new LoxScriptEngine();
+		ScriptContext context = context(new StringWriter());
+		Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+		Bindings local = context.getBindings(ScriptContext.ENGINE_SCOPE);
+		global.put("shared", 10);
+		global.put("onlyGlobal", "never read");
+		local.put("count", 5L);
+		local.put("letter", 'x');
+		local.put("flag", true);
+		local.put("onlyLocal", 1);
+		// ENGINE_SCOPE wins over GLOBAL_SCOPE.
+		global.put("count", 99);
+
+		engine.eval("count = count + shared; var text = letter + \"y\";"
+				+ " var both = flag and count > 0;", context);
+
+		// Java numbers come back as Lox numbers, ropes as Strings.
+		assertEquals(15.0, local.get("count"));
+		assertEquals(10.0, local.get("shared"));
+		assertEquals("x", local.get("letter"));
+		assertEquals("xy", local.get("text"));
+		assertEquals(true, local.get("both"));
+		// Bindings the script never mentions are not loaded into it, so
+		// they are not written back either.
+		assertFalse(local.containsKey("onlyGlobal"));
+		assertEquals(1, local.get("onlyLocal"));
+		assertEquals(10, global.get("shared"));
+	}
+
+	@Test
+	void compiledScriptsRunConcurrently() throws Exception {
+		LoxScriptEngine engine = new LoxScriptEngine();
+		CompiledScript script = engine.compile("var sum = 0;"
+				+ " for (var i = 0; i < n; i = i + 1) sum = sum + i;");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Object>> sums = new ArrayList<>();
+			for (int n = 0; n < 32; n++) {
+				int limit = n * 100;
+				sums.add(pool.submit(() -> {
+					ScriptContext context = context(new StringWriter());
+					context.setAttribute("n", limit,
+							ScriptContext.ENGINE_SCOPE);
+					script.eval(context);
+					return context.getAttribute("sum");
+				}));
+			}
+			for (int n = 0; n < 32; n++) {
+				int limit = n * 100;
+				assertEquals((double) (limit * (limit - 1) / 2), sums.get(n)
+						.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static ScriptContext context(StringWriter out) {
+		ScriptContext context = new SimpleScriptContext();
+		context.setWriter(out);
+		context.setBindings(new SimpleBindings(), ScriptContext.GLOBAL_SCOPE);
+		return context;
+	}
+}
@@ -0,0 +1,167 @@
+package com.tony.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Output formatting against Interpreter.stringify(), and when each flush
+ * policy writes to a stream, a channel or a writer.
+ */
+class OutputTest {
+	private static final String NEWLINE = System.lineSeparator();
+
+	@Test
+	void numbersMatchStringify() {
+		double[] numbers = {0, -0.0, 1, -1, 7, -42, 9_999_999, -9_999_999,
+				10_000_000, -10_000_000, 12_345_678, 0.5, -0.5, 9_999_999.5,
+				-9_999_999.5, 123.25, 1e-7, 1e21, -1e21, 9.007199254740993e15,
+				Long.MAX_VALUE, Long.MIN_VALUE, Double.MIN_VALUE,
+				Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes, StandardCharsets.UTF_8);
+		StringBuilder expected = new StringBuilder();
+		for (double number : numbers) {
+			out.print(number);
+			expected.append(Interpreter.stringify(number)).append(NEWLINE);
+		}
+		out.flush();
+		assertEquals(expected.toString(), text(bytes));
+	}
+
+	@Test
+	void otherValuesMatchStringify() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes, StandardCharsets.UTF_8);
+		out.print(null);
+		out.print(true);
+		out.print("text");
+		out.print(Rope.concat("ro", "pe"));
+		out.flush();
+		assertEquals("nil" + NEWLINE + "true" + NEWLINE + "text" + NEWLINE
+				+ "rope" + NEWLINE, text(bytes));
+	}
+
+	@Test
+	void exitPolicyWritesOnlyOnFlush() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes, StandardCharsets.UTF_8);
+		out.print(1.0);
+		out.print("two");
+		assertEquals(0, bytes.size());
+		out.flush();
+		assertEquals("1" + NEWLINE + "two" + NEWLINE, text(bytes));
+	}
+
+	@Test
+	void linePolicyWritesEveryPrint() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes, StandardCharsets.UTF_8);
+		out.setFlushPolicy(Output.FlushPolicy.LINE);
+		out.print(1.0);
+		assertEquals("1" + NEWLINE, text(bytes));
+		out.print("two");
+		assertEquals("1" + NEWLINE + "two" + NEWLINE, text(bytes));
+	}
+
+	@Test
+	void sizePolicyWritesOnceTheFlushSizeIsBuffered() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes, StandardCharsets.UTF_8);
+		out.setFlushPolicy(Output.FlushPolicy.SIZE);
+		String line = "abcd";
+		int perPrint = line.length() + NEWLINE.length();
+		out.setFlushSize(3 * perPrint);
+
+		out.print(line);
+		out.print(line);
+		assertEquals(0, bytes.size());
+		out.print(line);
+		assertEquals(3 * perPrint, bytes.size());
+		out.print(line);
+		assertEquals(3 * perPrint, bytes.size());
+	}
+
+	@Test
+	void channelTarget() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel channel = Channels.newChannel(bytes);
+		Output out = new Output(channel, StandardCharsets.UTF_8);
+		out.print(-0.0);
+		out.print("é€😀");
+		assertEquals(0, bytes.size());
+		out.flush();
+		assertEquals("-0" + NEWLINE + "é€😀" + NEWLINE, text(bytes));
+
+		out.setFlushPolicy(Output.FlushPolicy.LINE);
+		out.print(3.0);
+		assertTrue(text(bytes).endsWith(NEWLINE + "3" + NEWLINE));
+
+		out.close();
+		assertFalse(channel.isOpen());
+		assertFalse(out.checkError());
+	}
+
+	@Test
+	void writerTarget() {
+		StringWriter writer = new StringWriter();
+		Output out = new Output(writer);
+		out.print(2.5);
+		assertEquals("", writer.toString());
+		out.flush();
+		assertEquals("2.5" + NEWLINE, writer.toString());
+	}
+
+	// Strings longer than the buffer go through in pieces, and a surrogate
+	// pair on a piece boundary is not split.
+	@Test
+	void stringsLongerThanTheBuffer() {
+		String emoji = "😀";
+		String[] values = {
+				"a".repeat(Output.CAPACITY - 1) + emoji + "b".repeat(
+						Output.CAPACITY),
+				"c".repeat(3 * Output.CAPACITY + 5),
+				emoji.repeat(Output.CAPACITY)};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes, StandardCharsets.UTF_8);
+		StringBuilder expected = new StringBuilder();
+		// Something already buffered when the first long string arrives.
+		out.print(1.0);
+		expected.append("1").append(NEWLINE);
+		for (String value : values) {
+			out.print(value);
+			expected.append(value).append(NEWLINE);
+		}
+		out.flush();
+		assertEquals(expected.toString(), text(bytes));
+	}
+
+	@Test
+	void writeErrorsAreRecordedNotThrown() {
+		Output out = new Output(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("disk full");
+			}
+		}, StandardCharsets.UTF_8);
+		out.print("lost");
+		assertFalse(out.checkError());
+		out.flush();
+		assertTrue(out.checkError());
+	}
+
+	private static String text(ByteArrayOutputStream bytes) {
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+}
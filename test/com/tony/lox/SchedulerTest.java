@@ -0,0 +1,248 @@
+package com.tony.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/*
+ * Scheduler states: slices shared round-robin and requeued, the budget
+ * boundary, cancelling queued and running scripts, close() and scripts that
+ * crash. Slices are small so every script is paused and resumed many times.
+ */
+@Timeout(30)
+class SchedulerTest {
+	private static final String SPIN = "while (true) {}";
+
+	@ParameterizedTest
+	@ValueSource(ints = {1, 2, 3, 5, 100})
+	void budgetIsInclusive(int slice) throws InterruptedException {
+		String source = "var i = 0; while (i < 5) i = i + 1; print i;";
+		try (Scheduler scheduler = new Scheduler(2, slice)) {
+			Capture out = new Capture();
+			Capture err = new Capture();
+			Scheduler.Task exact = scheduler.submit(source, out.stream,
+					err.stream, 5);
+			assertEquals(Scheduler.Status.OK, exact.await());
+			assertEquals(5, exact.executed());
+			assertEquals("5\n", out.text());
+			assertEquals("", err.text());
+
+			Capture overErr = new Capture();
+			Scheduler.Task over = scheduler.submit(source, out.stream,
+					overErr.stream, 4);
+			assertEquals(Scheduler.Status.BUDGET_EXCEEDED, over.await());
+			assertEquals(5, over.executed());
+			assertEquals("Script exceeded its budget of 4 loop iterations.\n",
+					overErr.text());
+		}
+	}
+
+	@Test
+	void scriptsWithoutLoopsFitAnyBudget() throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(1, 1)) {
+			Capture out = new Capture();
+			Scheduler.Task task = scheduler.submit("print 1;", out.stream,
+					new Capture().stream, 0);
+			assertEquals(Scheduler.Status.OK, task.await());
+			assertEquals(0, task.executed());
+			assertEquals("1\n", out.text());
+		}
+	}
+
+	// With one carrier, each queued script gets one slice per round.
+	@Test
+	void slicesAreSharedRoundRobin() throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(1, 10)) {
+			Capture err = new Capture();
+			Scheduler.Task first = scheduler.submit(SPIN, err.stream,
+					err.stream);
+			Scheduler.Task second = scheduler.submit(SPIN, err.stream,
+					err.stream);
+			Capture out = new Capture();
+			Scheduler.Task finite = scheduler.submit("var i = 0;"
+					+ " while (i < 100) i = i + 1; print i;", out.stream,
+					err.stream);
+
+			// 100 iterations take eleven slices; both spinners ran before
+			// each of them.
+			assertEquals(Scheduler.Status.OK, finite.await());
+			assertEquals("100\n", out.text());
+			assertTrue(first.executed() >= 110, "first " + first.executed());
+			assertTrue(second.executed() >= 110, "second " + second
+					.executed());
+			assertEquals(Scheduler.Status.PENDING, first.status());
+			assertEquals(Scheduler.Status.PENDING, second.status());
+		}
+	}
+
+	@Test
+	void scriptsAreRequeuedAcrossCarriers() throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(4, 7)) {
+			List<Scheduler.Task> tasks = new ArrayList<>();
+			List<Capture> outputs = new ArrayList<>();
+			for (int n = 100; n < 120; n++) {
+				Capture out = new Capture();
+				outputs.add(out);
+				tasks.add(scheduler.submit("var sum = 0; for (var i = 0; i < "
+						+ n + "; i = i + 1) sum = sum + i; print sum;",
+						out.stream, System.err));
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				int n = 100 + i;
+				assertEquals(Scheduler.Status.OK, tasks.get(i).await());
+				assertEquals(n, tasks.get(i).executed());
+				assertEquals(n * (n - 1) / 2 + "\n", outputs.get(i).text());
+			}
+		}
+	}
+
+	@Test
+	void cancellingAQueuedScriptStopsItAtOnce()
+			throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(1, 10)) {
+			// Hold the only carrier while the first script flushes.
+			Gate gate = new Gate();
+			Scheduler.Task holder = scheduler.submit("print 1;", gate.stream,
+					System.err);
+			gate.entered.await();
+
+			Capture err = new Capture();
+			Scheduler.Task queued = scheduler.submit(SPIN, err.stream,
+					err.stream);
+			queued.cancel();
+			assertEquals(Scheduler.Status.CANCELLED, queued.status());
+			assertEquals(0, queued.executed());
+			assertEquals("Script cancelled.\n", err.text());
+
+			gate.open.countDown();
+			assertEquals(Scheduler.Status.OK, holder.await());
+			assertEquals(Scheduler.Status.CANCELLED, queued.await());
+		}
+	}
+
+	@Test
+	void cancellingARunningScriptStopsItAfterItsSlice()
+			throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(1, 1_000_000)) {
+			// The print buffer fills, and blocks, in the middle of the slice.
+			Gate gate = new Gate();
+			Capture err = new Capture();
+			Scheduler.Task running = scheduler.submit("while (true) print 1;",
+					gate.stream, err.stream);
+			gate.entered.await();
+
+			running.cancel();
+			assertEquals(Scheduler.Status.PENDING, running.status());
+
+			gate.open.countDown();
+			assertEquals(Scheduler.Status.CANCELLED, running.await());
+			assertTrue(running.executed() > 0);
+			assertEquals("Script cancelled.\n", err.text());
+		}
+	}
+
+	@Test
+	void closeCancelsScriptsAndRejectsNewOnes() throws InterruptedException {
+		Scheduler scheduler = new Scheduler(2, 10);
+		List<Scheduler.Task> tasks = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Capture err = new Capture();
+			tasks.add(scheduler.submit(SPIN, err.stream, err.stream));
+		}
+		scheduler.close();
+		for (Scheduler.Task task : tasks) {
+			assertEquals(Scheduler.Status.CANCELLED, task.await());
+		}
+
+		assertThrows(IllegalStateException.class, () -> scheduler.submit(
+				"print 1;", System.out, System.err));
+		// Closing again does nothing.
+		scheduler.close();
+	}
+
+	@Test
+	void crashesFailOnlyTheirScript() throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(2, 10)) {
+			Capture err = new Capture();
+			Scheduler.Task crash = scheduler.submit("print " + "(".repeat(
+					200_000) + "1" + ")".repeat(200_000) + ";", System.out,
+					err.stream);
+			assertEquals(Scheduler.Status.FAILED, crash.await());
+			assertTrue(crash.failure() instanceof StackOverflowError);
+			assertEquals("Script failed: java.lang.StackOverflowError\n", err
+					.text());
+
+			Capture out = new Capture();
+			Scheduler.Task next = scheduler.submit("print 2;", out.stream,
+					System.err);
+			assertEquals(Scheduler.Status.OK, next.await());
+			assertEquals(null, next.failure());
+			assertEquals("2\n", out.text());
+		}
+	}
+
+	@Test
+	void reportsSyntaxAndRuntimeErrors() throws InterruptedException {
+		try (Scheduler scheduler = new Scheduler(2, 3)) {
+			Capture syntax = new Capture();
+			assertEquals(Scheduler.Status.SYNTAX_ERROR, scheduler.submit(
+					"print ;", System.out, syntax.stream).await());
+			assertEquals("\n[line 1] Error at ';': Expected expression.\n",
+					syntax.text());
+
+			Capture runtime = new Capture();
+			Scheduler.Task task = scheduler.submit("for (var i = 0; i < 10;"
+					+ " i = i + 1) if (i == 5) print -nil;", System.out,
+					runtime.stream);
+			assertEquals(Scheduler.Status.RUNTIME_ERROR, task.await());
+			assertEquals("Operand must be a number.\n[line 1]\n", runtime
+					.text());
+		}
+	}
+
+	private static final class Capture {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final PrintStream stream = new PrintStream(bytes, true,
+				StandardCharsets.UTF_8);
+
+		String text() {
+			return bytes.toString(StandardCharsets.UTF_8);
+		}
+	}
+
+	// Blocks the first write until opened, to hold a carrier.
+	private static final class Gate extends OutputStream {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch open = new CountDownLatch(1);
+		final PrintStream stream = new PrintStream(this, true,
+				StandardCharsets.UTF_8);
+
+		@Override
+		public void write(int b) {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int length) {
+			entered.countDown();
+			try {
+				open.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}